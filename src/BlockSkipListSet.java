@@ -0,0 +1,532 @@
+import java.lang.reflect.Array;
+import java.util.*;
+
+/**
+ * Unrolled sibling of SkipListSet: the bottom level is a list of blocks, each holding a small sorted array of keys,
+ * and the index levels point at blocks rather than at single keys. A search descends to the right block and finishes
+ * with a binary search inside it, so the last few hops of every search and every step of a scan stay within one array.
+ * Blocks split when they overflow and merge with a neighbour when they run low, which keeps them between a quarter
+ * and all of blockSize full (apart from a lone last block).
+ */
+public class BlockSkipListSet<T> extends AbstractSet<T> implements SortedSet<T> {
+    /** A run of keys in sorted order; its first key is what the index levels sort it by */
+    static final class Block<T> {
+        final Object[] keys;
+        int count;
+
+        Block<T>[] next; // next[0] is the bottom level
+        Block<T> prev; // Only kept on the bottom level
+
+        Block(int capacity, int levels){
+            this.keys = new Object[capacity];
+            this.next = newBlockArray(levels);
+        }
+
+        /** Amount of levels this block reaches */
+        int levels(){
+            return next.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        T key(int index){
+            return (T) keys[index];
+        }
+
+        T first(){
+            return key(0);
+        }
+    }
+
+    private static final int DEFAULT_BLOCK_SIZE = 32;
+
+    private Block<T> head; // Sentinel; holds no keys and reaches every level
+    private Block<T> tail; // Last block on the bottom level, or head if the list is empty
+
+    private final Block<T>[] update; // Scratch predecessors, one per level, reused between calls
+
+    private int height; // Levels in use
+    private int size; // Amount of unique elements in list
+
+    private final int blockSize;
+    private final SkipListLevelGenerator levelGenerator; // Decides how tall new blocks get
+
+    private final Comparator<? super T> comparator;
+
+    public BlockSkipListSet(){
+        this(null, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockSkipListSet(Comparator<? super T> comparator){
+        this(comparator, DEFAULT_BLOCK_SIZE);
+    }
+
+    /** Use blocks of blockSize keys; 16 to 64 is a good range for keys that are compared through a pointer */
+    public BlockSkipListSet(Comparator<? super T> comparator, int blockSize){
+        if (blockSize < 4){
+            throw new IllegalArgumentException("Blocks need room for at least 4 keys");
+        }
+
+        this.comparator = comparator;
+        this.blockSize = blockSize;
+        this.levelGenerator = SkipListLevelGenerator.geometric(SkipListLevelGenerator.HALF, 32);
+        this.update = newBlockArray(levelGenerator.maxLevel());
+
+        clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Block<T>[] newBlockArray(int levels){
+        return (Block<T>[]) new Block<?>[levels];
+    }
+
+    private int compare(T e1, T e2){
+        return SkipListSet.compare(comparator, e1, e2);
+    }
+
+    /**
+     * AUX: Fills update[] with the last block on every level whose first key is <= key (or < key if not inclusive),
+     * and returns the bottom one; head if there is none
+     */
+    private Block<T> descend(T key, boolean inclusive){
+        Block<T> curr = head;
+
+        // Going across stops at a first key equal to ours only when it's excluded
+        int stopAt = inclusive ? -1 : 0;
+
+        for (int level = height - 1; level >= 0; level--){
+            Block<T> next = curr.next[level];
+
+            while (next != null && compare(key, next.first()) > stopAt){
+                curr = next;
+                next = curr.next[level];
+            }
+
+            update[level] = curr;
+        }
+
+        return curr;
+    }
+
+    /** AUX: Binary search within a block; the index of key, or -(insertion point) - 1 like Arrays.binarySearch */
+    private int indexIn(Block<T> block, T key){
+        int low = 0;
+        int high = block.count - 1;
+
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            int comparison = compare(block.key(middle), key);
+
+            if (comparison < 0){
+                low = middle + 1;
+            } else if (comparison > 0){
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    /** AUX: Link a new block after the given one; update[] must hold its predecessors on every level */
+    private Block<T> linkAfter(Block<T> block){
+        int levels = levelGenerator.nextLevel();
+
+        for (int level = height; level < levels; level++){
+            update[level] = head;
+        }
+
+        height = Math.max(height, levels);
+
+        Block<T> newBlock = new Block<>(blockSize, levels);
+
+        for (int level = 0; level < levels; level++){
+            newBlock.next[level] = update[level].next[level];
+            update[level].next[level] = newBlock;
+        }
+
+        newBlock.prev = block;
+
+        if (newBlock.next[0] != null){
+            newBlock.next[0].prev = newBlock;
+        } else {
+            tail = newBlock;
+        }
+
+        return newBlock;
+    }
+
+    /** AUX: Unlink a block whose first key is firstKey */
+    private void unlink(Block<T> block, T firstKey){
+        // Blocks hold disjoint ranges, so the ones before this block are exactly those starting below firstKey
+        descend(firstKey, false);
+
+        for (int level = 0; level < block.levels(); level++){
+            update[level].next[level] = block.next[level];
+        }
+
+        if (block.next[0] != null){
+            block.next[0].prev = block.prev;
+        } else {
+            tail = block.prev;
+        }
+    }
+
+    /** Add to skip list */
+    @Override
+    public boolean add(T key){
+        Objects.requireNonNull(key);
+
+        Block<T> block = descend(key, true);
+
+        if (block == head){
+            block = head.next[0];
+
+            // Empty list: the key gets a block of its own
+            if (block == null){
+                block = linkAfter(head);
+                block.keys[0] = key;
+                block.count = 1;
+
+                size++;
+                return true;
+            }
+
+            // The key goes in front of the first block; make update[] hold that block's predecessors instead
+            descend(block.first(), true);
+        }
+
+        int index = indexIn(block, key);
+
+        // Don't modify the set on a duplicate key
+        if (index >= 0){
+            return false;
+        }
+
+        index = -index - 1;
+
+        // Full: move the upper half into a new block right after this one
+        if (block.count == blockSize){
+            Block<T> upper = linkAfter(block);
+
+            int half = blockSize / 2;
+            upper.count = blockSize - half;
+            System.arraycopy(block.keys, half, upper.keys, 0, upper.count);
+            Arrays.fill(block.keys, half, blockSize, null);
+            block.count = half;
+
+            if (index > half){
+                block = upper;
+                index -= half;
+            }
+        }
+
+        System.arraycopy(block.keys, index, block.keys, index + 1, block.count - index);
+        block.keys[index] = key;
+        block.count++;
+
+        size++;
+        return true;
+    }
+
+    /** Remove from skip list */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o){
+        // Passed in nothing
+        if (o == null){
+            return false;
+        }
+
+        T key = (T) o;
+
+        Block<T> block = descend(key, true);
+
+        if (block == head){
+            return false;
+        }
+
+        int index = indexIn(block, key);
+
+        // Can't remove key that doesn't exist!
+        if (index < 0){
+            return false;
+        }
+
+        size--;
+
+        // Last key of its block: drop the whole block, while its first key is still there for unlink() to find it by
+        if (block.count == 1){
+            unlink(block, key);
+            return true;
+        }
+
+        block.count--;
+        System.arraycopy(block.keys, index + 1, block.keys, index, block.count - index);
+        block.keys[block.count] = null;
+
+        if (block.count < blockSize / 4){
+            mergeWithNeighbour(block);
+        }
+
+        return true;
+    }
+
+    /** AUX: Fold a block that ran low into a neighbour (or a neighbour into it) if the two fit in 3/4 of a block */
+    private void mergeWithNeighbour(Block<T> block){
+        int limit = blockSize * 3 / 4;
+
+        Block<T> left;
+        Block<T> right;
+
+        if (block.next[0] != null && block.count + block.next[0].count <= limit){
+            left = block;
+            right = block.next[0];
+        } else if (block.prev != head && block.prev.count + block.count <= limit){
+            left = block.prev;
+            right = block;
+        } else {
+            return;
+        }
+
+        unlink(right, right.first());
+
+        System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+        left.count += right.count;
+    }
+
+    /** Return whether key exists in the skip list */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o){
+        // Passed in nothing
+        if (o == null){
+            return false;
+        }
+
+        T key = (T) o;
+
+        Block<T> block = descend(key, true);
+
+        return block != head && indexIn(block, key) >= 0;
+    }
+
+    /** Iterator walking the keys of one block after the other */
+    private class BlockSkipListSetIterator implements Iterator<T> {
+        private Block<T> block;
+        private int index;
+
+        private final T toElement; // Exclusive upper bound, null if unbounded
+
+        private T last;
+
+        BlockSkipListSetIterator(T fromElement, T toElement){
+            this.toElement = toElement;
+            seek(fromElement);
+        }
+
+        /** AUX: Move to the first key >= key, or to the very first key for null */
+        private void seek(T key){
+            if (key == null){
+                block = head.next[0];
+                index = 0;
+                return;
+            }
+
+            block = descend(key, true);
+
+            if (block == head){
+                block = head.next[0];
+                index = 0;
+                return;
+            }
+
+            index = indexIn(block, key);
+
+            if (index < 0){
+                index = -index - 1;
+            }
+
+            // Past the end of this block: the next block starts above key
+            if (index == block.count){
+                block = block.next[0];
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext(){
+            return block != null && (toElement == null || compare(block.key(index), toElement) < 0);
+        }
+
+        @Override
+        public T next(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = block.key(index);
+
+            if (++index == block.count){
+                block = block.next[0];
+                index = 0;
+            }
+
+            return last;
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == null){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            BlockSkipListSet.this.remove(last);
+
+            // Removal may have shifted, merged or dropped blocks; find our place again
+            seek(last);
+            last = null;
+        }
+    }
+
+    /** Return iterator */
+    @Override
+    public Iterator<T> iterator(){
+        return new BlockSkipListSetIterator(null, null);
+    }
+
+    @Override
+    public Comparator<? super T> comparator(){
+        return comparator;
+    }
+
+    /** Return skip list size */
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /** Return whether skip list is empty */
+    @Override
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /** Return first element in skip list */
+    @Override
+    public T first(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return head.next[0].first();
+    }
+
+    /** Return last element in skip list */
+    @Override
+    public T last(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return tail.key(tail.count - 1);
+    }
+
+    /** Convert skip list to array of objects; one array copy per block */
+    @Override
+    public Object[] toArray(){
+        return copyInto(new Object[size]);
+    }
+
+    /** Convert skip list to an array of the given type; one array copy per block */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E> E[] toArray(E[] a){
+        E[] target = a.length >= size ? a : (E[]) Array.newInstance(a.getClass().getComponentType(), size);
+
+        copyInto(target);
+
+        // Mark the end like Collection.toArray() asks for
+        if (target.length > size){
+            target[size] = null;
+        }
+
+        return target;
+    }
+
+    /** AUX: Copy every key into the front of target, a block at a time */
+    private <E> E[] copyInto(E[] target){
+        int position = 0;
+
+        for (Block<T> block = head.next[0]; block != null; block = block.next[0]){
+            System.arraycopy(block.keys, 0, target, position, block.count);
+            position += block.count;
+        }
+
+        return target;
+    }
+
+    /** Clears the skip list */
+    @Override
+    public void clear(){
+        // Reset everything; overwritten stuff will be garbage collected
+        size = 0;
+        height = 1; // The bottom level always exists, even when empty
+
+        head = new Block<>(0, update.length);
+        tail = head;
+    }
+
+    /** Return subset of skip list, including start and excluding end */
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).subSet(fromElement, toElement);
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<T> headSet(T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).headSet(toElement);
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<T> tailSet(T fromElement){
+        return SkipListSetView.of(this, new ViewNavigation()).tailSet(fromElement);
+    }
+
+    /** Range scans for the views; the last key of a range is found by one descent and a binary search */
+    private class ViewNavigation implements SkipListSetView.Navigation<T> {
+        @Override
+        public Iterator<T> iterator(T fromElement, T toElement){
+            return new BlockSkipListSetIterator(fromElement, toElement);
+        }
+
+        @Override
+        public T highest(T fromElement, T toElement){
+            if (isEmpty()){
+                return null;
+            }
+
+            T last;
+
+            if (toElement == null){
+                last = tail.key(tail.count - 1);
+            } else {
+                // Last block starting below toElement; the key we want is in it, just before toElement's place
+                Block<T> block = descend(toElement, false);
+
+                if (block == head){
+                    return null;
+                }
+
+                int index = indexIn(block, toElement);
+                last = block.key((index < 0 ? -index - 1 : index) - 1);
+            }
+
+            return fromElement == null || compare(last, fromElement) >= 0 ? last : null;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * SkipListSet kept in a directory: every mutation is appended to a write-ahead log before the call returns (as durably
+ * as the SyncPolicy asks for), and opening the directory again rebuilds the set from the latest snapshot plus the log
+ * written since. Once the log outgrows the compaction threshold a background thread writes a fresh snapshot and drops
+ * the log it covers.
+ *
+ * Methods are synchronized on the set, so it can be shared between threads; like Collections.synchronizedSet(),
+ * iterating (over the set or a view) needs the caller to hold the set's monitor if others may write meanwhile.
+ *
+ * Files: snapshot-N holds the set as it was when wal-N was started; recovery loads the highest snapshot and replays
+ * wal-N, wal-N+1, ... in order.
+ */
+public class DurableSkipListSet<T> extends AbstractSet<T> implements SortedSet<T>, Closeable {
+    /** When logged mutations are forced to disk */
+    public static final class SyncPolicy {
+        final long intervalMillis; // 0 on every commit, < 0 never
+
+        private SyncPolicy(long intervalMillis){
+            this.intervalMillis = intervalMillis;
+        }
+
+        /** Force before every mutating call returns; concurrent callers share one fsync */
+        public static SyncPolicy everyOperation(){
+            return new SyncPolicy(0);
+        }
+
+        /**
+         * Force in the background every so many milliseconds. Records reach the OS before each call returns, so a
+         * process crash loses nothing; an OS crash or power loss loses at most that much
+         */
+        public static SyncPolicy everyMillis(long millis){
+            if (millis <= 0){
+                throw new IllegalArgumentException("Sync interval must be positive");
+            }
+
+            return new SyncPolicy(millis);
+        }
+
+        /**
+         * Leave it to the OS; only flush() and close() force. Records reach the OS before each call returns, so a
+         * process crash loses nothing, but an OS crash or power loss can lose anything since the last flush()
+         */
+        public static SyncPolicy never(){
+            return new SyncPolicy(-1);
+        }
+    }
+
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String LOG = "wal-";
+
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20; // Log bytes
+
+    private final Path directory;
+    private final SkipListKeyCodec<T> codec;
+    private final SyncPolicy syncPolicy;
+    private final long compactionThreshold;
+
+    private final SkipListSet<T> set;
+
+    private SkipListWriteAheadLog<T> log;
+    private long generation; // Number of the log file being appended to
+
+    private final ExecutorService compactor;
+    private Future<?> compaction; // Last compaction started, null if none yet
+
+    private DurableSkipListSet(Path directory, SkipListKeyCodec<T> codec, SyncPolicy syncPolicy, long compactionThreshold,
+                               SkipListSet<T> set, long generation) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.syncPolicy = syncPolicy;
+        this.compactionThreshold = compactionThreshold;
+        this.set = set;
+        this.generation = generation;
+
+        this.log = new SkipListWriteAheadLog<>(logFile(generation), codec, syncPolicy.intervalMillis);
+
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "skip-list-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Open (or create) a naturally ordered set in directory, forcing the log every 10 ms */
+    public static <T> DurableSkipListSet<T> open(Path directory, SkipListKeyCodec<T> codec) throws IOException {
+        return open(directory, codec, null, SyncPolicy.everyMillis(10), DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /** Open (or create) a set in directory; it must always be opened with the same codec and comparator */
+    public static <T> DurableSkipListSet<T> open(Path directory, SkipListKeyCodec<T> codec, Comparator<? super T> comparator,
+                                                 SyncPolicy syncPolicy) throws IOException {
+        return open(directory, codec, comparator, syncPolicy, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /** Open (or create) a set in directory, compacting whenever the log grows past compactionThreshold bytes */
+    public static <T> DurableSkipListSet<T> open(Path directory, SkipListKeyCodec<T> codec, Comparator<? super T> comparator,
+                                                 SyncPolicy syncPolicy, long compactionThreshold) throws IOException {
+        if (Files.notExists(directory)){
+            Files.createDirectories(directory);
+            SkipListSetSnapshot.forceDirectory(directory.toAbsolutePath().getParent());
+        }
+
+        long snapshot = -1;
+        TreeSet<Long> logs = new TreeSet<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)){
+            for (Path file : files){
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(".tmp")){
+                    // Left over from a snapshot that never finished
+                    Files.delete(file);
+                } else if (name.startsWith(SNAPSHOT)){
+                    snapshot = Math.max(snapshot, Long.parseLong(name.substring(SNAPSHOT.length())));
+                } else if (name.startsWith(LOG)){
+                    logs.add(Long.parseLong(name.substring(LOG.length())));
+                }
+            }
+        }
+
+        SkipListSet<T> set = snapshot < 0 ? new SkipListSet<>(comparator)
+                : SkipListSetSnapshot.load(directory.resolve(SNAPSHOT + snapshot), codec, comparator);
+
+        for (long generation : logs.tailSet(Math.max(snapshot, 0))){
+            SkipListWriteAheadLog.replay(directory.resolve(LOG + generation), codec, set);
+        }
+
+        // Start a log of our own, after anything found
+        long generation = Math.max(snapshot, logs.isEmpty() ? 0 : logs.last() + 1);
+
+        DurableSkipListSet<T> durable = new DurableSkipListSet<>(directory, codec, syncPolicy, compactionThreshold, set, generation);
+        durable.deleteBefore(Math.max(snapshot, 0));
+
+        return durable;
+    }
+
+    /** AUX: Path of the log file of a generation */
+    private Path logFile(long generation){
+        return directory.resolve(LOG + generation);
+    }
+
+    /**
+     * AUX: Drop the snapshots and logs a newer snapshot (the one of the given generation) made redundant; the snapshot's
+     * directory entry must already be on disk, or a power loss could leave neither it nor the logs it replaces
+     */
+    private void deleteBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)){
+            for (Path file : files){
+                String name = file.getFileName().toString();
+
+                String prefix = name.startsWith(SNAPSHOT) ? SNAPSHOT : name.startsWith(LOG) ? LOG : null;
+
+                if (prefix != null && !name.endsWith(".tmp") && Long.parseLong(name.substring(prefix.length())) < generation){
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * AUX: Wait for the logged records up to sequence as the sync policy says, then see if the log needs compacting. A
+     * compaction that failed is reported here, once; the logs it would have replaced are still there, so the next one
+     * can simply try again.
+     */
+    private void commit(long sequence){
+        try {
+            log.commit(sequence);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        synchronized (this){
+            if (compaction != null && compaction.isDone()){
+                try {
+                    awaitCompaction();
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            if (log.size() >= compactionThreshold && compaction == null){
+                startCompaction();
+            }
+        }
+    }
+
+    /**
+     * AUX: Continue logging in a new file and snapshot the keys as of that moment in the background. The keys are copied
+     * out while we hold the lock, which is one array and far quicker than writing them; writers carry on meanwhile.
+     */
+    private synchronized Future<?> startCompaction(){
+        long snapshotGeneration = generation + 1;
+
+        try {
+            log.rotate(logFile(snapshotGeneration));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        generation = snapshotGeneration;
+
+        @SuppressWarnings("unchecked")
+        T[] keys = (T[]) set.toArray();
+
+        compaction = compactor.submit(() -> {
+            SkipListSetSnapshot.save(Arrays.asList(keys).iterator(), codec, directory.resolve(SNAPSHOT + snapshotGeneration));
+            deleteBefore(snapshotGeneration);
+
+            return null;
+        });
+
+        return compaction;
+    }
+
+    /** Snapshot the set and drop the log written so far, waiting until that's done */
+    public void compact() throws IOException {
+        Future<?> started;
+
+        synchronized (this){
+            awaitCompaction();
+            started = startCompaction();
+        }
+
+        await(started);
+    }
+
+    /** AUX: Wait for the last compaction started, if any; its failure, if it failed, is only reported once */
+    private void awaitCompaction() throws IOException {
+        if (compaction != null){
+            Future<?> started = compaction;
+            compaction = null;
+
+            await(started);
+        }
+    }
+
+    /** AUX: Wait for a compaction, passing on how it failed */
+    private static void await(Future<?> compaction) throws IOException {
+        try {
+            compaction.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting", e);
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof IOException){
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Compaction failed", e.getCause());
+        }
+    }
+
+    /** Force everything logged so far to disk, whatever the sync policy */
+    public void flush() throws IOException {
+        log.sync(log.lastSequence(), true);
+    }
+
+    /** Flush, finish any running compaction and release the files; the set must not be used afterwards */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            awaitCompaction();
+        } finally {
+            compactor.shutdown();
+            log.close();
+        }
+    }
+
+    /** Returns the sync policy */
+    public SyncPolicy syncPolicy(){
+        return syncPolicy;
+    }
+
+    /** Add to the set and log it */
+    @Override
+    public boolean add(T key){
+        Objects.requireNonNull(key);
+
+        long sequence;
+
+        synchronized (this){
+            if (!set.add(key)){
+                return false;
+            }
+
+            sequence = log.append(SkipListWriteAheadLog.ADD, key);
+        }
+
+        commit(sequence);
+        return true;
+    }
+
+    /** Remove from the set and log it */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o){
+        long sequence;
+
+        synchronized (this){
+            if (!set.remove(o)){
+                return false;
+            }
+
+            sequence = log.append(SkipListWriteAheadLog.REMOVE, (T) o);
+        }
+
+        commit(sequence);
+        return true;
+    }
+
+    /**
+     * Add every key; the batch is merged in one go and then logged whole (keys already present replay as no-ops). If the
+     * merge fails partway, only the keys that made it into the set get logged.
+     */
+    @Override
+    public boolean addAll(Collection<? extends T> c){
+        long sequence;
+        boolean modified = false;
+        RuntimeException failure = null;
+
+        synchronized (this){
+            try {
+                modified = set.addAll(c);
+            } catch (RuntimeException e){
+                failure = e;
+            }
+
+            sequence = log.lastSequence();
+
+            for (T key : c){
+                if (key != null && (failure == null || containsQuietly(key))){
+                    sequence = log.append(SkipListWriteAheadLog.ADD, key);
+                }
+            }
+        }
+
+        commit(sequence);
+
+        if (failure != null){
+            throw failure;
+        }
+
+        return modified;
+    }
+
+    /** AUX: Whether the set holds key, counting a key the comparator rejects as absent */
+    private boolean containsQuietly(T key){
+        try {
+            return set.contains(key);
+        } catch (RuntimeException e){
+            return false;
+        }
+    }
+
+    /** Remove every key of c, logging just the ones that were here */
+    @Override
+    public boolean removeAll(Collection<?> c){
+        // Few keys: look each one up; many: one sweep over the set
+        if (c.size() < size()){
+            long sequence;
+            boolean modified = false;
+
+            synchronized (this){
+                sequence = log.lastSequence();
+
+                for (Object o : c){
+                    if (set.remove(o)){
+                        @SuppressWarnings("unchecked")
+                        T key = (T) o;
+
+                        sequence = log.append(SkipListWriteAheadLog.REMOVE, key);
+                        modified = true;
+                    }
+                }
+            }
+
+            commit(sequence);
+            return modified;
+        }
+
+        return removeIf(c::contains);
+    }
+
+    /** Keep only keys in c, logging every key removed */
+    @Override
+    public boolean retainAll(Collection<?> c){
+        return removeIf(key -> !c.contains(key));
+    }
+
+    /** Remove every key matching the filter in one sweep, logging each one */
+    @Override
+    public boolean removeIf(Predicate<? super T> filter){
+        long sequence;
+        boolean modified;
+
+        synchronized (this){
+            modified = set.removeIf(key -> {
+                if (!filter.test(key)){
+                    return false;
+                }
+
+                log.append(SkipListWriteAheadLog.REMOVE, key);
+                return true;
+            });
+
+            sequence = log.lastSequence();
+        }
+
+        commit(sequence);
+        return modified;
+    }
+
+    /** Empty the set with a single log record */
+    @Override
+    public void clear(){
+        long sequence;
+
+        synchronized (this){
+            set.clear();
+            sequence = log.append(SkipListWriteAheadLog.CLEAR, null);
+        }
+
+        commit(sequence);
+    }
+
+    @Override
+    public synchronized boolean contains(Object o){
+        return set.contains(o);
+    }
+
+    @Override
+    public synchronized int size(){
+        return set.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty(){
+        return set.isEmpty();
+    }
+
+    @Override
+    public synchronized T first(){
+        return set.first();
+    }
+
+    @Override
+    public synchronized T last(){
+        return set.last();
+    }
+
+    @Override
+    public Comparator<? super T> comparator(){
+        return set.comparator();
+    }
+
+    @Override
+    public synchronized Object[] toArray(){
+        return set.toArray();
+    }
+
+    @Override
+    public synchronized <E> E[] toArray(E[] a){
+        return set.toArray(a);
+    }
+
+    /** Iterator whose remove() is logged; hold the set's monitor while iterating if others may write */
+    @Override
+    public Iterator<T> iterator(){
+        return new LoggingIterator(set.iterator());
+    }
+
+    /** Wraps an iterator of the underlying set (or of a view of it) so removal through it gets logged */
+    private class LoggingIterator implements Iterator<T> {
+        private final Iterator<T> iterator;
+        private T last;
+
+        LoggingIterator(Iterator<T> iterator){
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next(){
+            last = iterator.next();
+            return last;
+        }
+
+        @Override
+        public void remove(){
+            long sequence;
+
+            synchronized (DurableSkipListSet.this){
+                iterator.remove();
+                sequence = log.append(SkipListWriteAheadLog.REMOVE, last);
+            }
+
+            commit(sequence);
+        }
+    }
+
+    /** Return subset of the set, including start and excluding end */
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement){
+        return new SubSet(set.subSet(fromElement, toElement));
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<T> headSet(T toElement){
+        return new SubSet(set.headSet(toElement));
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<T> tailSet(T fromElement){
+        return new SubSet(set.tailSet(fromElement));
+    }
+
+    /** Live view over a view of the underlying set; reads go to that view, writes get logged like any other */
+    private class SubSet extends AbstractSet<T> implements SortedSet<T> {
+        private final SortedSet<T> view;
+
+        SubSet(SortedSet<T> view){
+            this.view = view;
+        }
+
+        @Override
+        public Comparator<? super T> comparator(){
+            return view.comparator();
+        }
+
+        @Override
+        public Iterator<T> iterator(){
+            return new LoggingIterator(view.iterator());
+        }
+
+        @Override
+        public int size(){
+            synchronized (DurableSkipListSet.this){
+                return view.size();
+            }
+        }
+
+        @Override
+        public boolean isEmpty(){
+            synchronized (DurableSkipListSet.this){
+                return view.isEmpty();
+            }
+        }
+
+        @Override
+        public boolean contains(Object o){
+            synchronized (DurableSkipListSet.this){
+                return view.contains(o);
+            }
+        }
+
+        @Override
+        public boolean add(T key){
+            long sequence;
+
+            synchronized (DurableSkipListSet.this){
+                // Throws for keys outside the view
+                if (!view.add(key)){
+                    return false;
+                }
+
+                sequence = log.append(SkipListWriteAheadLog.ADD, key);
+            }
+
+            commit(sequence);
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o){
+            long sequence;
+
+            synchronized (DurableSkipListSet.this){
+                if (!view.remove(o)){
+                    return false;
+                }
+
+                sequence = log.append(SkipListWriteAheadLog.REMOVE, (T) o);
+            }
+
+            commit(sequence);
+            return true;
+        }
+
+        @Override
+        public T first(){
+            synchronized (DurableSkipListSet.this){
+                return view.first();
+            }
+        }
+
+        @Override
+        public T last(){
+            synchronized (DurableSkipListSet.this){
+                return view.last();
+            }
+        }
+
+        @Override
+        public SortedSet<T> subSet(T from, T to){
+            return new SubSet(view.subSet(from, to));
+        }
+
+        @Override
+        public SortedSet<T> headSet(T to){
+            return new SubSet(view.headSet(to));
+        }
+
+        @Override
+        public SortedSet<T> tailSet(T from){
+            return new SubSet(view.tailSet(from));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Geometric tower heights drawn from a single 64-bit word per tower (splitmix64, unsynchronized).
+ * P(height > k) = p^k, capped at maxLevel.
+ */
+public class GeometricLevelGenerator implements SkipListLevelGenerator {
+    private final double probability;
+    private final int maxLevel;
+
+    private final int bitsPerLevel; // log2(1/p) when p is a power of 1/2, else 0
+    private final double inverseLogProbability; // 1 / ln(p), for any other p
+
+    private long state;
+
+    public GeometricLevelGenerator(double probability, int maxLevel, long seed){
+        if (!(probability > 0 && probability < 1)){
+            throw new IllegalArgumentException("Promotion probability must be between 0 and 1");
+        }
+
+        if (maxLevel < 1){
+            throw new IllegalArgumentException("Max level must be at least 1");
+        }
+
+        this.probability = probability;
+        this.maxLevel = maxLevel;
+        this.state = seed;
+
+        // p = 1/2^k can be read straight off the trailing zeros of the random word
+        double inverse = 1 / probability;
+        int bits = (int) Math.round(Math.log(inverse) / Math.log(2));
+        this.bitsPerLevel = bits >= 1 && bits <= 32 && Math.scalb(1.0, bits) == inverse ? bits : 0;
+
+        this.inverseLogProbability = 1 / Math.log(probability);
+    }
+
+    /** AUX: splitmix64 step */
+    private long nextLong(){
+        long z = (state += 0x9E3779B97F4A7C15L);
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public int nextLevel(){
+        long word = nextLong();
+        int levels;
+
+        if (bitsPerLevel != 0){
+            // Every bitsPerLevel trailing zeros is one more promotion
+            levels = 1 + Long.numberOfTrailingZeros(word) / bitsPerLevel;
+        } else {
+            // Inverse transform: u in (0, 1], height - 1 = floor(ln(u) / ln(p))
+            double u = ((word >>> 11) + 1) * 0x1.0p-53;
+            levels = 1 + (int) (Math.log(u) * inverseLogProbability);
+        }
+
+        return Math.min(levels, maxLevel);
+    }
+
+    @Override
+    public int maxLevel(){
+        return maxLevel;
+    }
+
+    /** Same probability and cap, seeded off this generator's stream */
+    @Override
+    public SkipListLevelGenerator split(){
+        return new GeometricLevelGenerator(probability, maxLevel, nextLong());
+    }
+
+    /** Promotion probability */
+    public double probability(){
+        return probability;
+    }
+}
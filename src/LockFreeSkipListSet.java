@@ -0,0 +1,490 @@
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe sibling of SkipListSet. Forward pointers are CAS-linked and carry a deletion mark;
+ * removal first marks a tower (logical delete) and then any thread that walks past it helps unlink it.
+ * contains() never blocks and never retries. Iterators and views are weakly consistent.
+ */
+public class LockFreeSkipListSet<T> extends AbstractSet<T> implements SortedSet<T> {
+    static final class Node<T> {
+        final T key;
+        final AtomicMarkableReference<Node<T>>[] next; // next[0] is the bottom level; the mark means "this node is deleted"
+
+        @SuppressWarnings("unchecked")
+        Node(T key, int levels){
+            this.key = key;
+            this.next = (AtomicMarkableReference<Node<T>>[]) new AtomicMarkableReference<?>[levels];
+        }
+
+        /** Amount of levels this node reaches */
+        int levels(){
+            return next.length;
+        }
+
+        /** A node is logically deleted once its bottom level link is marked */
+        boolean isDeleted(){
+            return next[0].isMarked();
+        }
+    }
+
+    // Height is fixed up front so that the sentinels never have to be swapped out under concurrent readers
+    static final int MAX_LEVEL = 32;
+
+    private final Node<T> head;
+    private final Node<T> tail;
+
+    private final LongAdder size = new LongAdder(); // Amount of unique elements in list
+
+    private final Comparator<? super T> comparator;
+
+    public LockFreeSkipListSet(){
+        this(null);
+    }
+
+    public LockFreeSkipListSet(Comparator<? super T> comparator){
+        // Assign the comparator
+        this.comparator = comparator;
+
+        // Initialize sentinels; every level of head starts out pointing at tail
+        head = new Node<>(null, MAX_LEVEL);
+        tail = new Node<>(null, MAX_LEVEL);
+
+        for (int level = 0; level < MAX_LEVEL; level++){
+            head.next[level] = new AtomicMarkableReference<>(tail, false);
+            tail.next[level] = new AtomicMarkableReference<>(null, false);
+        }
+    }
+
+    /** AUX: Whether a node sits strictly before a key; tail sits after everything */
+    private boolean isBefore(Node<T> node, T key){
+        if (node == head){
+            return true;
+        } else if (node == tail){
+            return false;
+        }
+
+        return SkipListSet.compare(comparator, node.key, key) < 0;
+    }
+
+    /** AUX: Whether a node holds exactly this key */
+    private boolean holds(Node<T> node, T key){
+        return node != head && node != tail && SkipListSet.compare(comparator, node.key, key) == 0;
+    }
+
+    /** AUX: Draw a tower height, p = 1/2, from one random word */
+    private static int randomLevel(){
+        int levels = Long.numberOfTrailingZeros(ThreadLocalRandom.current().nextLong()) + 1;
+
+        return Math.min(levels, MAX_LEVEL);
+    }
+
+    /**
+     * AUX: Fill preds/succs with the nodes around key on every level, unlinking any marked node on the way.
+     * Returns whether the bottom level successor holds key.
+     */
+    private boolean find(T key, Node<T>[] preds, Node<T>[] succs){
+        boolean[] marked = {false};
+
+        retry:
+        while (true){
+            Node<T> pred = head;
+
+            for (int level = MAX_LEVEL - 1; level >= 0; level--){
+                Node<T> curr = pred.next[level].getReference();
+
+                while (true){
+                    Node<T> succ = curr.next[level].get(marked);
+
+                    // Help out: snip deleted nodes before going past them
+                    while (marked[0]){
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)){
+                            continue retry;
+                        }
+
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+
+                    if (isBefore(curr, key)){
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+
+            return holds(succs[0], key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<T>[] newNodeArray(){
+        return (Node<T>[]) new Node<?>[MAX_LEVEL];
+    }
+
+    /** Returns the comparator */
+    @Override
+    public Comparator<? super T> comparator(){
+        return comparator;
+    }
+
+    /** Add to skip list */
+    @Override
+    public boolean add(T key){
+        // Passed in nothing
+        if (key == null){
+            return false;
+        }
+
+        int heightOfNewKey = randomLevel();
+
+        Node<T>[] preds = newNodeArray();
+        Node<T>[] succs = newNodeArray();
+
+        while (true){
+            // Don't modify the set on a duplicate key
+            if (find(key, preds, succs)){
+                return false;
+            }
+
+            Node<T> newNode = new Node<>(key, heightOfNewKey);
+            for (int level = 0; level < heightOfNewKey; level++){
+                newNode.next[level] = new AtomicMarkableReference<>(succs[level], false);
+            }
+
+            // Linking the bottom level is what makes the key part of the set
+            if (!preds[0].next[0].compareAndSet(succs[0], newNode, false, false)){
+                continue;
+            }
+
+            size.increment();
+
+            // Upper levels are only shortcuts; link them one by one, re-finding whenever we lose a race
+            for (int level = 1; level < heightOfNewKey; level++){
+                while (true){
+                    Node<T> succ = succs[level];
+                    Node<T> currentSucc = newNode.next[level].getReference();
+
+                    // Someone already deleted our new node; stop building its tower
+                    if (newNode.next[level].isMarked()){
+                        return true;
+                    }
+
+                    if (currentSucc != succ && !newNode.next[level].compareAndSet(currentSucc, succ, false, false)){
+                        continue;
+                    }
+
+                    if (preds[level].next[level].compareAndSet(succ, newNode, false, false)){
+                        break;
+                    }
+
+                    find(key, preds, succs);
+
+                    // Our node got removed and unlinked while we were re-finding
+                    if (succs[0] != newNode){
+                        return true;
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /** Remove from skip list */
+    @Override
+    public boolean remove(Object o){
+        // Passed in nothing
+        if (o == null){
+            return false;
+        }
+
+        // Cast should be OK
+        @SuppressWarnings("unchecked")
+        T key = (T)o;
+
+        Node<T>[] preds = newNodeArray();
+        Node<T>[] succs = newNodeArray();
+
+        // Can't remove key that doesn't exist!
+        if (!find(key, preds, succs)){
+            return false;
+        }
+
+        Node<T> nodeToRemove = succs[0];
+        boolean[] marked = {false};
+
+        // Mark the upper levels top-down so nobody links past the node while we're at it
+        for (int level = nodeToRemove.levels() - 1; level >= 1; level--){
+            Node<T> succ = nodeToRemove.next[level].get(marked);
+
+            while (!marked[0]){
+                nodeToRemove.next[level].attemptMark(succ, true);
+                succ = nodeToRemove.next[level].get(marked);
+            }
+        }
+
+        // Whoever marks the bottom level is the one that removed the key
+        Node<T> succ = nodeToRemove.next[0].get(marked);
+        while (true){
+            boolean markedByUs = nodeToRemove.next[0].compareAndSet(succ, succ, false, true);
+            succ = nodeToRemove.next[0].get(marked);
+
+            if (markedByUs){
+                size.decrement();
+
+                // Physically unlink it
+                find(key, preds, succs);
+                return true;
+            } else if (marked[0]){
+                return false;
+            }
+        }
+    }
+
+    /** Return whether o exists in the skip list; wait-free, it never helps or retries */
+    @Override
+    public boolean contains(Object o){
+        if (o == null){
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        T key = (T)o;
+
+        boolean[] marked = {false};
+        Node<T> pred = head;
+        Node<T> curr = null;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--){
+            curr = pred.next[level].getReference();
+
+            while (true){
+                Node<T> succ = curr.next[level].get(marked);
+
+                // Step over deleted nodes without unlinking them
+                while (marked[0]){
+                    curr = succ;
+                    succ = curr.next[level].get(marked);
+                }
+
+                if (isBefore(curr, key)){
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        return holds(curr, key);
+    }
+
+    /** AUX: First live node on the bottom level at or after start */
+    private Node<T> firstLiveFrom(Node<T> start){
+        Node<T> curr = start;
+
+        while (curr != tail && curr.isDeleted()){
+            curr = curr.next[0].getReference();
+        }
+
+        return curr;
+    }
+
+    /** AUX: First live node whose key is >= key (or > key if not inclusive); tail if none */
+    private Node<T> ceilingNode(T key, boolean inclusive){
+        Node<T> pred = head;
+
+        for (int level = MAX_LEVEL - 1; level >= 0; level--){
+            Node<T> curr = pred.next[level].getReference();
+
+            while (curr != tail && SkipListSet.compare(comparator, curr.key, key) < (inclusive ? 0 : 1)){
+                pred = curr;
+                curr = curr.next[level].getReference();
+            }
+        }
+
+        Node<T> curr = firstLiveFrom(pred.next[0].getReference());
+
+        // Deleted nodes we skipped could have been followed by keys below the bound that got re-added
+        while (curr != tail && SkipListSet.compare(comparator, curr.key, key) < (inclusive ? 0 : 1)){
+            curr = firstLiveFrom(curr.next[0].getReference());
+        }
+
+        return curr;
+    }
+
+    /** Weakly consistent iterator over the bottom level */
+    private class LockFreeSkipListSetIterator implements Iterator<T> {
+        private Node<T> curr;
+        private Node<T> last;
+
+        private final T toElement; // Exclusive upper bound, null if unbounded
+
+        LockFreeSkipListSetIterator(Node<T> start, T toElement){
+            this.toElement = toElement;
+            this.curr = firstLiveFrom(start);
+        }
+
+        @Override
+        public boolean hasNext(){
+            if (curr == tail){
+                return false;
+            }
+
+            return toElement == null || SkipListSet.compare(comparator, curr.key, toElement) < 0;
+        }
+
+        @Override
+        public T next(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = curr;
+            curr = firstLiveFrom(curr.next[0].getReference());
+
+            return last.key;
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == null){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            LockFreeSkipListSet.this.remove(last.key);
+            last = null;
+        }
+    }
+
+    /** Return iterator */
+    @Override
+    public Iterator<T> iterator(){
+        return new LockFreeSkipListSetIterator(head.next[0].getReference(), null);
+    }
+
+    /** Return skip list size; only a snapshot while other threads are writing */
+    @Override
+    public int size(){
+        // A remove's decrement can land before the matching add's increment, so the sum may dip below zero
+        return (int) Math.max(0, Math.min(size.sum(), Integer.MAX_VALUE));
+    }
+
+    /** Return whether skip list is empty */
+    @Override
+    public boolean isEmpty(){
+        return firstLiveFrom(head.next[0].getReference()) == tail;
+    }
+
+    /** Return first element in skip list */
+    @Override
+    public T first(){
+        Node<T> first = firstLiveFrom(head.next[0].getReference());
+
+        if (first == tail){
+            throw new NoSuchElementException();
+        }
+
+        return first.key;
+    }
+
+    /** Return last element in skip list */
+    @Override
+    public T last(){
+        Node<T> last = lastNodeBefore(null);
+
+        if (last == head){
+            throw new NoSuchElementException();
+        }
+
+        return last.key;
+    }
+
+    /** AUX: Last live node whose key is < bound (anything if null); head if none */
+    private Node<T> lastNodeBefore(T bound){
+        while (true){
+            Node<T> pred = head;
+
+            // Go as far right as possible on every level, but only ever drop down from a live node: a deleted one may
+            // already be unlinked below, and dropping down from it could skip live nodes there
+            for (int level = MAX_LEVEL - 1; level >= 0; level--){
+                Node<T> curr = pred.next[level].getReference();
+
+                while (curr != tail && (bound == null || SkipListSet.compare(comparator, curr.key, bound) < 0)){
+                    if (!curr.isDeleted()){
+                        pred = curr;
+                    }
+
+                    curr = curr.next[level].getReference();
+                }
+            }
+
+            // Deleted since we passed it; whatever is last now is somewhere before it
+            if (pred != head && pred.isDeleted()){
+                continue;
+            }
+
+            return pred;
+        }
+    }
+
+    /** Clears the skip list; concurrent adds may survive it */
+    @Override
+    public void clear(){
+        Node<T> curr = firstLiveFrom(head.next[0].getReference());
+
+        while (curr != tail){
+            remove(curr.key);
+            curr = firstLiveFrom(curr.next[0].getReference());
+        }
+    }
+
+    /** Return subset of skip list, including start and excluding end */
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).subSet(fromElement, toElement);
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<T> headSet(T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).headSet(toElement);
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<T> tailSet(T fromElement){
+        return SkipListSetView.of(this, new ViewNavigation()).tailSet(fromElement);
+    }
+
+    /** Weakly consistent range scans for the views */
+    private class ViewNavigation implements SkipListSetView.Navigation<T> {
+        @Override
+        public Iterator<T> iterator(T fromElement, T toElement){
+            Node<T> start = fromElement == null ? head.next[0].getReference() : ceilingNode(fromElement, true);
+
+            return new LockFreeSkipListSetIterator(start, toElement);
+        }
+
+        @Override
+        public T highest(T fromElement, T toElement){
+            Node<T> last = lastNodeBefore(toElement);
+
+            if (last == head || (fromElement != null && SkipListSet.compare(comparator, last.key, fromElement) < 0)){
+                return null;
+            }
+
+            return last.key;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+import java.util.*;
+
+/**
+ * Skip list of primitive longs, laid out the same way as SkipListSet (one tower per key) but without
+ * boxing: keys are stored, compared and handed out as plain longs. Every long value is a valid key.
+ */
+public class LongSkipListSet {
+    static final class LongSkipListSetItem {
+        LongSkipListSetItem[] next; // next[0] is the bottom level
+        LongSkipListSetItem prev; // Only kept on the bottom level
+
+        long key;
+
+        LongSkipListSetItem(long key, int levels){
+            this.key = key;
+            this.next = new LongSkipListSetItem[levels];
+        }
+
+        /** Amount of levels this item reaches */
+        int levels(){
+            return next.length;
+        }
+    }
+
+    /** Primitive iterator over the bottom level, optionally bounded by an exclusive upper key */
+    public class LongSkipListSetIterator implements PrimitiveIterator.OfLong {
+        private LongSkipListSetItem curr;
+        private LongSkipListSetItem last;
+
+        private final boolean bounded;
+        private final long toKey;
+
+        LongSkipListSetIterator(LongSkipListSetItem start, boolean bounded, long toKey){
+            this.curr = start;
+            this.bounded = bounded;
+            this.toKey = toKey;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return curr != null && (!bounded || curr.key < toKey);
+        }
+
+        @Override
+        public long nextLong(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = curr;
+            curr = curr.next[0];
+
+            return last.key;
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == null){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            LongSkipListSet.this.remove(last.key);
+            last = null;
+        }
+    }
+
+    private static final int INITIAL_LEVELS = 4;
+
+    private LongSkipListSetItem head; // Sentinel tower; its key is never looked at
+    private LongSkipListSetItem tail; // Last item on the bottom level, or head if the list is empty
+
+    private LongSkipListSetItem[] update; // Scratch predecessors, one per level, reused between calls
+
+    private int height; // Height of list
+    private int size; // Amount of unique elements in list
+
+    private final SkipListLevelGenerator levelGenerator; // Decides how tall new towers get
+
+    public LongSkipListSet(){
+        this(SkipListLevelGenerator.geometric(SkipListLevelGenerator.HALF, 32));
+    }
+
+    /** Use a specific level generator, e.g. p = 1/4 for fewer pointers per key, or a seeded one for reproducible layouts */
+    public LongSkipListSet(SkipListLevelGenerator levelGenerator){
+        this.levelGenerator = levelGenerator;
+
+        clear();
+    }
+
+    /** AUX: Fills update[] with the last item strictly before key on every level */
+    private void findPredecessors(long key){
+        LongSkipListSetItem curr = head;
+
+        for (int level = height - 1; level >= 0; level--){
+            LongSkipListSetItem next = curr.next[level];
+
+            while (next != null && next.key < key){
+                curr = next;
+                next = curr.next[level];
+            }
+
+            update[level] = curr;
+        }
+    }
+
+    /** AUX: First bottom level item with key >= the given one, or null */
+    private LongSkipListSetItem ceilingItem(long key){
+        LongSkipListSetItem curr = head;
+
+        for (int level = height - 1; level >= 0; level--){
+            LongSkipListSetItem next = curr.next[level];
+
+            while (next != null && next.key < key){
+                curr = next;
+                next = curr.next[level];
+            }
+        }
+
+        return curr.next[0];
+    }
+
+    /** AUX: Grow the list if passed height exceeds the current one; new levels start out at the head */
+    private void increaseHeightIfTaller(int levels){
+        if (levels <= height){
+            return;
+        }
+
+        if (levels > head.levels()){
+            int newLevels = Math.max(levels, head.levels() * 2);
+
+            head.next = Arrays.copyOf(head.next, newLevels);
+            update = Arrays.copyOf(update, newLevels);
+        }
+
+        for (int level = height; level < levels; level++){
+            update[level] = head;
+        }
+
+        height = levels;
+    }
+
+    /** Add to skip list */
+    public boolean add(long key){
+        findPredecessors(key);
+
+        // Don't modify the set on a duplicate key
+        LongSkipListSetItem existing = update[0].next[0];
+        if (existing != null && existing.key == key){
+            return false;
+        }
+
+        int heightOfNewKey = levelGenerator.nextLevel();
+
+        increaseHeightIfTaller(heightOfNewKey);
+
+        LongSkipListSetItem newItem = new LongSkipListSetItem(key, heightOfNewKey);
+        for (int level = 0; level < heightOfNewKey; level++){
+            newItem.next[level] = update[level].next[level];
+            update[level].next[level] = newItem;
+        }
+
+        newItem.prev = update[0];
+        if (newItem.next[0] != null){
+            newItem.next[0].prev = newItem;
+        } else {
+            tail = newItem;
+        }
+
+        // Set was modified if we reach this point
+        size++;
+        return true;
+    }
+
+    /** Remove from skip list */
+    public boolean remove(long key){
+        findPredecessors(key);
+
+        LongSkipListSetItem itemToBeRemoved = update[0].next[0];
+
+        // Can't remove key that doesn't exist!
+        if (itemToBeRemoved == null || itemToBeRemoved.key != key){
+            return false;
+        }
+
+        for (int level = 0; level < itemToBeRemoved.levels(); level++){
+            update[level].next[level] = itemToBeRemoved.next[level];
+        }
+
+        if (itemToBeRemoved.next[0] != null){
+            itemToBeRemoved.next[0].prev = itemToBeRemoved.prev;
+        } else {
+            tail = itemToBeRemoved.prev;
+        }
+
+        // Set was modified at this point
+        size--;
+        return true;
+    }
+
+    /** Return whether key exists in the skip list */
+    public boolean contains(long key){
+        LongSkipListSetItem item = ceilingItem(key);
+
+        return item != null && item.key == key;
+    }
+
+    /** Return first element in skip list */
+    public long first(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return head.next[0].key;
+    }
+
+    /** Return last element in skip list */
+    public long last(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return tail.key;
+    }
+
+    /** Return skip list size */
+    public int size(){
+        return size;
+    }
+
+    /** Return whether skip list is empty */
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /** Return iterator over every key */
+    public LongSkipListSetIterator iterator(){
+        return new LongSkipListSetIterator(head.next[0], false, 0);
+    }
+
+    /** Return iterator over keys in [fromKey, toKey) */
+    public LongSkipListSetIterator iterator(long fromKey, long toKey){
+        return new LongSkipListSetIterator(ceilingItem(fromKey), true, toKey);
+    }
+
+    /** Return iterator over keys >= fromKey */
+    public LongSkipListSetIterator tailIterator(long fromKey){
+        return new LongSkipListSetIterator(ceilingItem(fromKey), false, 0);
+    }
+
+    /** Count keys in [fromKey, toKey) */
+    public int countRange(long fromKey, long toKey){
+        int count = 0;
+
+        for (LongSkipListSetItem curr = ceilingItem(fromKey); curr != null && curr.key < toKey; curr = curr.next[0]){
+            count++;
+        }
+
+        return count;
+    }
+
+    /** Copy keys in [fromKey, toKey) out in order */
+    public long[] toArray(long fromKey, long toKey){
+        long[] array = new long[countRange(fromKey, toKey)];
+
+        int i = 0;
+        for (LongSkipListSetItem curr = ceilingItem(fromKey); i < array.length; curr = curr.next[0]){
+            array[i] = curr.key;
+            i++;
+        }
+
+        return array;
+    }
+
+    /** Copy every key out in order */
+    public long[] toArray(){
+        long[] array = new long[size];
+
+        int i = 0;
+        for (LongSkipListSetItem curr = head.next[0]; curr != null; curr = curr.next[0]){
+            array[i] = curr.key;
+            i++;
+        }
+
+        return array;
+    }
+
+    /** Clears the skip list */
+    public void clear(){
+        // Reset everything; overwritten stuff will be garbage collected
+        size = 0;
+        height = 1; // The bottom level always exists, even when empty
+
+        head = new LongSkipListSetItem(0, INITIAL_LEVELS);
+        tail = head;
+
+        update = new LongSkipListSetItem[INITIAL_LEVELS];
+    }
+
+    /** Check if skip list contains same unique entries */
+    @Override
+    public boolean equals(Object o){
+        // Same reference
+        if (o == this){
+            return true;
+        }
+
+        if (!(o instanceof LongSkipListSet)){
+            return false;
+        }
+
+        LongSkipListSet otherList = (LongSkipListSet) o;
+
+        if (size() != otherList.size()){
+            return false;
+        }
+
+        LongSkipListSetItem curr = head.next[0];
+        LongSkipListSetItem otherCurr = otherList.head.next[0];
+
+        while (curr != null){
+            if (curr.key != otherCurr.key){
+                return false;
+            }
+
+            curr = curr.next[0];
+            otherCurr = otherCurr.next[0];
+        }
+
+        return true;
+    }
+
+    /** Compute hashcode for this skip list */
+    @Override
+    public int hashCode(){
+        int hash = 1;
+
+        for (LongSkipListSetItem curr = head.next[0]; curr != null; curr = curr.next[0]){
+            hash *= 31;
+            hash += Long.hashCode(curr.key);
+        }
+
+        return hash;
+    }
+
+    public void printSkipList(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("\nSkipList starting with top-left most item.\n");
+
+        for (int level = height - 1; level >= 0; level--){
+            sb.append("\nLevel: ").append(level).append("\n");
+            sb.append("head");
+
+            for (LongSkipListSetItem curr = head.next[level]; curr != null; curr = curr.next[level]){
+                sb.append(" : ").append(curr.key);
+            }
+
+            sb.append(" : null\n");
+        }
+
+        System.out.println(sb);
+    }
+}
@@ -0,0 +1,647 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Skip list of longs that lives in a memory-mapped file, for key sets larger than the heap (or RAM). Towers refer to
+ * each other by file offset, and everything else the list needs (size, height, tail, free lists) sits in a header at
+ * the start of the file, so opening an existing file just maps it; nothing is read or rebuilt up front.
+ *
+ * The file is mapped in fixed-size pages, each on first touch. Towers reaching more than INDEX_LEVELS levels are
+ * allocated in pages of their own, so the upper levels of every search stay within a small set of index pages, which
+ * get loaded on open and stay hot; the bottom levels are left to the OS to page in and out.
+ *
+ * Changes go straight to the mapped pages; flush() forces them to disk. There is no log, so a crash between flushes
+ * can leave the file inconsistent (see DurableSkipListSet for a crash-safe set).
+ */
+public class MappedSkipListSet extends AbstractSet<Long> implements SortedSet<Long>, AutoCloseable {
+    /*
+
+    Tower layout, in bytes from its file offset:
+
+        0               key (long)
+        8               prev (long)
+        16              levels (int)
+        24...           next pointers (long), one per level
+
+    Header layout, in bytes from the start of the file:
+
+        0               magic (int)
+        4               version (int)
+        8               page shift (int)
+        12              height (int)
+        16              size (long)
+        24              tail (long)
+        32              pages handed out (int)
+        36              index pages (int)
+        40              data cursor (long), next free byte in the current data page, NIL if there is none
+        48              index cursor (long), the same for index pages
+        56              free list heads (long), indexed by tower height
+        512...          index page numbers (int)
+
+    The head tower follows the header; page 0 is the first index page. NIL (0) marks the end of a level
+
+    */
+
+    private static final long NIL = 0;
+
+    private static final int MAGIC = 0x534B4C4D; // "SKLM"
+    private static final int VERSION = 1;
+
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int PAGE_SHIFT_AT = 8;
+    private static final int HEIGHT_AT = 12;
+    private static final int SIZE_AT = 16;
+    private static final int TAIL_AT = 24;
+    private static final int PAGE_COUNT_AT = 32;
+    private static final int INDEX_PAGE_COUNT_AT = 36;
+    private static final int DATA_CURSOR_AT = 40;
+    private static final int INDEX_CURSOR_AT = 48;
+    private static final int FREE_TOWERS_AT = 56;
+    private static final int INDEX_PAGES_AT = 512;
+
+    private static final int MAX_INDEX_PAGES = 1 << 15;
+    private static final long HEAD = INDEX_PAGES_AT + 4L * MAX_INDEX_PAGES;
+
+    private static final int KEY = 0;
+    private static final int PREV = 8;
+    private static final int LEVELS = 16;
+    private static final int NEXT = 24;
+
+    static final int MAX_LEVEL = 32;
+
+    /** Towers taller than this go in index pages; with p = 1/2 that's one tower in 32 */
+    static final int INDEX_LEVELS = 5;
+
+    private static final int DEFAULT_PAGE_SHIFT = 26; // 64 MiB pages
+    private static final int MIN_PAGE_SHIFT = 20; // Page 0 has to fit the header and the head tower
+
+    private final Path file;
+    private final FileChannel channel;
+
+    private final int pageShift;
+    private final long pageMask;
+
+    private MappedByteBuffer[] pages = new MappedByteBuffer[16]; // Mapped on first touch
+    private final MappedByteBuffer header; // Page 0
+
+    private final long[] update = new long[MAX_LEVEL]; // Scratch predecessors, one per level, reused between calls
+
+    private final SkipListLevelGenerator levelGenerator; // Decides how tall new towers get
+
+    private MappedSkipListSet(Path file, FileChannel channel, int pageShift, SkipListLevelGenerator levelGenerator){
+        this.file = file;
+        this.channel = channel;
+        this.pageShift = pageShift;
+        this.pageMask = (1L << pageShift) - 1;
+        this.levelGenerator = levelGenerator;
+
+        this.header = page(0);
+    }
+
+    /** Open the list in file, creating it with 64 MiB pages if it doesn't exist yet */
+    public static MappedSkipListSet open(Path file) throws IOException {
+        return open(file, 1 << DEFAULT_PAGE_SHIFT);
+    }
+
+    /**
+     * Open the list in file, creating it with pages of pageSize bytes (a power of two, at least 1 MiB) if it doesn't
+     * exist yet; an existing file keeps the page size it was created with
+     */
+    public static MappedSkipListSet open(Path file, int pageSize) throws IOException {
+        if (Integer.bitCount(pageSize) != 1 || pageSize < 1 << MIN_PAGE_SHIFT){
+            throw new IllegalArgumentException("Page size must be a power of two of at least 1 MiB");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            SkipListLevelGenerator levelGenerator = SkipListLevelGenerator.geometric(SkipListLevelGenerator.HALF, MAX_LEVEL);
+
+            if (channel.size() == 0){
+                MappedSkipListSet set = new MappedSkipListSet(file, channel, Integer.numberOfTrailingZeros(pageSize), levelGenerator);
+                set.format();
+
+                return set;
+            }
+
+            // The page size is in the header; read that much first, then map the real pages
+            MappedByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), INDEX_PAGES_AT));
+
+            if (probe.limit() < INDEX_PAGES_AT || probe.getInt(MAGIC_AT) != MAGIC){
+                throw new IOException(file + " is not a mapped skip list");
+            }
+
+            if (probe.getInt(VERSION_AT) != VERSION){
+                throw new IOException("Unsupported mapped skip list version " + probe.getInt(VERSION_AT));
+            }
+
+            MappedSkipListSet set = new MappedSkipListSet(file, channel, probe.getInt(PAGE_SHIFT_AT), levelGenerator);
+            set.warmIndexPages();
+
+            return set;
+        } catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** AUX: Write a fresh header and head tower */
+    private void format(){
+        header.putInt(MAGIC_AT, MAGIC);
+        header.putInt(VERSION_AT, VERSION);
+        header.putInt(PAGE_SHIFT_AT, pageShift);
+
+        clear();
+    }
+
+    /**
+     * AUX: Map every index page now and have a background thread read them in, so the first searches don't wait on
+     * the disk for the top of the list. Mapping costs no I/O, so open() returns right away.
+     */
+    private void warmIndexPages(){
+        List<MappedByteBuffer> indexPages = new ArrayList<>();
+
+        for (int i = 0; i < header.getInt(INDEX_PAGE_COUNT_AT); i++){
+            indexPages.add(page((long) header.getInt(INDEX_PAGES_AT + 4 * i) << pageShift));
+        }
+
+        Thread warmer = new Thread(() -> indexPages.forEach(MappedByteBuffer::load), "mapped-skip-list-warmer");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    /** AUX: Page holding a file offset, mapping it if this is its first touch */
+    private MappedByteBuffer page(long offset){
+        int number = (int) (offset >>> pageShift);
+
+        if (number < pages.length && pages[number] != null){
+            return pages[number];
+        }
+
+        if (number >= pages.length){
+            pages = Arrays.copyOf(pages, Math.max(pages.length * 2, number + 1));
+        }
+
+        try {
+            // Mapping past the end grows the file; pages never written stay sparse on most file systems
+            pages[number] = channel.map(FileChannel.MapMode.READ_WRITE, (long) number << pageShift, 1L << pageShift);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+
+        return pages[number];
+    }
+
+    /** AUX: Byte offset of a file offset within its page */
+    private int offset(long tower){
+        return (int) (tower & pageMask);
+    }
+
+    private long key(long tower){
+        return page(tower).getLong(offset(tower) + KEY);
+    }
+
+    private long prev(long tower){
+        return page(tower).getLong(offset(tower) + PREV);
+    }
+
+    private int levels(long tower){
+        return page(tower).getInt(offset(tower) + LEVELS);
+    }
+
+    private long nextAt(long tower, int level){
+        return page(tower).getLong(offset(tower) + NEXT + 8 * level);
+    }
+
+    private void setKey(long tower, long key){
+        page(tower).putLong(offset(tower) + KEY, key);
+    }
+
+    private void setPrev(long tower, long prev){
+        page(tower).putLong(offset(tower) + PREV, prev);
+    }
+
+    private void setLevels(long tower, int levels){
+        page(tower).putInt(offset(tower) + LEVELS, levels);
+    }
+
+    private void setNextAt(long tower, int level, long next){
+        page(tower).putLong(offset(tower) + NEXT + 8 * level, next);
+    }
+
+    private int height(){
+        return header.getInt(HEIGHT_AT);
+    }
+
+    private long tail(){
+        return header.getLong(TAIL_AT);
+    }
+
+    /** AUX: Bytes a tower with this many levels takes up */
+    private static int bytesFor(int levels){
+        return NEXT + 8 * levels;
+    }
+
+    /** AUX: Hand out a tower, reusing a freed one of the same height when possible */
+    private long allocateTower(int levels){
+        int freeAt = FREE_TOWERS_AT + 8 * levels;
+        long tower = header.getLong(freeAt);
+
+        if (tower != NIL){
+            // Free towers are chained through their bottom level pointer
+            header.putLong(freeAt, nextAt(tower, 0));
+            return tower;
+        }
+
+        boolean index = levels > INDEX_LEVELS;
+        int cursorAt = index ? INDEX_CURSOR_AT : DATA_CURSOR_AT;
+
+        long cursor = header.getLong(cursorAt);
+        int bytes = bytesFor(levels);
+
+        // Towers never straddle pages; leave the rest of a full one and start on a fresh page. A cursor right at a
+        // page boundary means the page was filled exactly, as the page after it isn't ours
+        if (cursor == NIL || (cursor & pageMask) == 0 || (cursor & pageMask) + bytes > pageMask + 1){
+            cursor = newPage(index);
+        }
+
+        header.putLong(cursorAt, cursor + bytes);
+
+        setLevels(cursor, levels);
+        return cursor;
+    }
+
+    /** AUX: Claim the next page of the file for data or index towers; returns its file offset */
+    private long newPage(boolean index){
+        int number = header.getInt(PAGE_COUNT_AT);
+        header.putInt(PAGE_COUNT_AT, number + 1);
+
+        if (index){
+            int indexPages = header.getInt(INDEX_PAGE_COUNT_AT);
+
+            if (indexPages == MAX_INDEX_PAGES){
+                throw new IllegalStateException("Mapped skip list is out of index pages; use a larger page size");
+            }
+
+            header.putInt(INDEX_PAGES_AT + 4 * indexPages, number);
+            header.putInt(INDEX_PAGE_COUNT_AT, indexPages + 1);
+        }
+
+        return (long) number << pageShift;
+    }
+
+    /** AUX: Put a removed tower on its free list */
+    private void freeTower(long tower){
+        int freeAt = FREE_TOWERS_AT + 8 * levels(tower);
+
+        setNextAt(tower, 0, header.getLong(freeAt));
+        header.putLong(freeAt, tower);
+    }
+
+    /** AUX: Fills update[] with the last tower strictly before key on every level */
+    private void findPredecessors(long key){
+        long curr = HEAD;
+
+        for (int level = height() - 1; level >= 0; level--){
+            long next = nextAt(curr, level);
+
+            while (next != NIL && key(next) < key){
+                curr = next;
+                next = nextAt(curr, level);
+            }
+
+            update[level] = curr;
+        }
+    }
+
+    /** AUX: First tower with key >= the given one, or NIL */
+    private long ceilingTower(long key){
+        long curr = HEAD;
+
+        for (int level = height() - 1; level >= 0; level--){
+            long next = nextAt(curr, level);
+
+            while (next != NIL && key(next) < key){
+                curr = next;
+                next = nextAt(curr, level);
+            }
+        }
+
+        return nextAt(curr, 0);
+    }
+
+    /** Add to skip list */
+    public boolean add(long key){
+        findPredecessors(key);
+
+        // Don't modify the set on a duplicate key
+        long existing = nextAt(update[0], 0);
+        if (existing != NIL && key(existing) == key){
+            return false;
+        }
+
+        // The head tower is only MAX_LEVEL tall, whatever the generator allows
+        int heightOfNewKey = Math.min(levelGenerator.nextLevel(), MAX_LEVEL);
+
+        // New levels start out at the head
+        int height = height();
+        for (int level = height; level < heightOfNewKey; level++){
+            update[level] = HEAD;
+        }
+        header.putInt(HEIGHT_AT, Math.max(height, heightOfNewKey));
+
+        long newTower = allocateTower(heightOfNewKey);
+        setKey(newTower, key);
+
+        for (int level = 0; level < heightOfNewKey; level++){
+            setNextAt(newTower, level, nextAt(update[level], level));
+            setNextAt(update[level], level, newTower);
+        }
+
+        setPrev(newTower, update[0]);
+
+        long after = nextAt(newTower, 0);
+        if (after != NIL){
+            setPrev(after, newTower);
+        } else {
+            header.putLong(TAIL_AT, newTower);
+        }
+
+        // Set was modified if we reach this point
+        header.putLong(SIZE_AT, longSize() + 1);
+        return true;
+    }
+
+    /** Add to skip list */
+    @Override
+    public boolean add(Long key){
+        // Passed in nothing
+        if (key == null){
+            return false;
+        }
+
+        return add(key.longValue());
+    }
+
+    /** Remove from skip list */
+    public boolean remove(long key){
+        findPredecessors(key);
+
+        long towerToBeRemoved = nextAt(update[0], 0);
+
+        // Can't remove key that doesn't exist!
+        if (towerToBeRemoved == NIL || key(towerToBeRemoved) != key){
+            return false;
+        }
+
+        int levels = levels(towerToBeRemoved);
+        for (int level = 0; level < levels; level++){
+            setNextAt(update[level], level, nextAt(towerToBeRemoved, level));
+        }
+
+        long after = nextAt(towerToBeRemoved, 0);
+        if (after != NIL){
+            setPrev(after, prev(towerToBeRemoved));
+        } else {
+            header.putLong(TAIL_AT, prev(towerToBeRemoved));
+        }
+
+        freeTower(towerToBeRemoved);
+
+        // Set was modified at this point
+        header.putLong(SIZE_AT, longSize() - 1);
+        return true;
+    }
+
+    /** Remove from skip list */
+    @Override
+    public boolean remove(Object o){
+        return o instanceof Long && remove(((Long) o).longValue());
+    }
+
+    /** Return whether key exists in the skip list */
+    public boolean contains(long key){
+        long tower = ceilingTower(key);
+
+        return tower != NIL && key(tower) == key;
+    }
+
+    /** Return whether o exists in the skip list */
+    @Override
+    public boolean contains(Object o){
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    /** Return first element in skip list */
+    public long firstLong(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return key(nextAt(HEAD, 0));
+    }
+
+    /** Return last element in skip list */
+    public long lastLong(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return key(tail());
+    }
+
+    @Override
+    public Long first(){
+        return firstLong();
+    }
+
+    @Override
+    public Long last(){
+        return lastLong();
+    }
+
+    /** Natural ordering; there is no comparator */
+    @Override
+    public Comparator<? super Long> comparator(){
+        return null;
+    }
+
+    /** Return skip list size, or Integer.MAX_VALUE if it holds more keys than that */
+    @Override
+    public int size(){
+        return (int) Math.min(longSize(), Integer.MAX_VALUE);
+    }
+
+    /** Return skip list size */
+    public long longSize(){
+        return header.getLong(SIZE_AT);
+    }
+
+    /** Return whether skip list is empty */
+    @Override
+    public boolean isEmpty(){
+        return longSize() == 0;
+    }
+
+    /** Primitive iterator over the bottom level, optionally bounded by an exclusive upper key */
+    public class MappedSkipListSetIterator implements PrimitiveIterator.OfLong {
+        private long curr;
+        private long last = NIL;
+
+        private final boolean bounded;
+        private final long toKey;
+
+        MappedSkipListSetIterator(long start, boolean bounded, long toKey){
+            this.curr = start;
+            this.bounded = bounded;
+            this.toKey = toKey;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return curr != NIL && (!bounded || key(curr) < toKey);
+        }
+
+        @Override
+        public long nextLong(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = curr;
+            curr = nextAt(curr, 0);
+
+            return key(last);
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == NIL){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            // The freed tower may be handed out again, but curr was read before that
+            MappedSkipListSet.this.remove(key(last));
+            last = NIL;
+        }
+    }
+
+    /** Return iterator over every key */
+    @Override
+    public MappedSkipListSetIterator iterator(){
+        return new MappedSkipListSetIterator(nextAt(HEAD, 0), false, 0);
+    }
+
+    /** Return iterator over keys in [fromKey, toKey) */
+    public MappedSkipListSetIterator iterator(long fromKey, long toKey){
+        return new MappedSkipListSetIterator(ceilingTower(fromKey), true, toKey);
+    }
+
+    /** Return subset of skip list, including start and excluding end */
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).subSet(fromElement, toElement);
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<Long> headSet(Long toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).headSet(toElement);
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement){
+        return SkipListSetView.of(this, new ViewNavigation()).tailSet(fromElement);
+    }
+
+    /** Range scans for the views; the last key of a range is found by a search from the top, not a scan */
+    private class ViewNavigation implements SkipListSetView.Navigation<Long> {
+        @Override
+        public Iterator<Long> iterator(Long fromElement, Long toElement){
+            long start = fromElement == null ? nextAt(HEAD, 0) : ceilingTower(fromElement);
+
+            return new MappedSkipListSetIterator(start, toElement != null, toElement == null ? 0 : toElement);
+        }
+
+        @Override
+        public Long highest(Long fromElement, Long toElement){
+            long tower;
+
+            if (toElement != null){
+                findPredecessors(toElement);
+                tower = update[0];
+            } else {
+                tower = tail();
+            }
+
+            if (tower == HEAD || (fromElement != null && key(tower) < fromElement)){
+                return null;
+            }
+
+            return key(tower);
+        }
+    }
+
+    /** Clears the skip list; the file keeps its length and its pages get reused */
+    @Override
+    public void clear(){
+        header.putInt(HEIGHT_AT, 1); // The bottom level always exists, even when empty
+        header.putLong(SIZE_AT, 0);
+        header.putLong(TAIL_AT, HEAD);
+
+        for (int levels = 0; levels <= MAX_LEVEL; levels++){
+            header.putLong(FREE_TOWERS_AT + 8 * levels, NIL);
+        }
+
+        // Page 0 is the first index page, with the head tower right after the header
+        header.putInt(PAGE_COUNT_AT, 1);
+        header.putInt(INDEX_PAGE_COUNT_AT, 1);
+        header.putInt(INDEX_PAGES_AT, 0);
+        header.putLong(INDEX_CURSOR_AT, HEAD + bytesFor(MAX_LEVEL));
+        header.putLong(DATA_CURSOR_AT, NIL);
+
+        setLevels(HEAD, MAX_LEVEL);
+        for (int level = 0; level < MAX_LEVEL; level++){
+            setNextAt(HEAD, level, NIL);
+        }
+    }
+
+    /** Bytes of the file handed out to towers so far, counting whole pages */
+    public long reservedBytes(){
+        return (long) header.getInt(PAGE_COUNT_AT) << pageShift;
+    }
+
+    /** Returns the file backing this set */
+    public Path file(){
+        return file;
+    }
+
+    /** Force every change made so far to disk */
+    public void flush(){
+        for (MappedByteBuffer page : pages){
+            if (page != null){
+                page.force();
+            }
+        }
+    }
+
+    /** Flush and close the file; the set can't be used afterwards */
+    @Override
+    public void close() throws IOException {
+        flush();
+
+        // Mappings go away once the buffers are collected
+        pages = new MappedByteBuffer[0];
+        channel.close();
+    }
+}
@@ -0,0 +1,486 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.*;
+
+/**
+ * Skip list of longs whose towers live outside the Java heap, in MemorySegment chunks owned by an Arena.
+ * Towers refer to each other by int word indexes instead of object references, and removed towers are
+ * kept on per-height free lists for reuse, so heap usage doesn't depend on how many keys are held.
+ * Must be closed to give the memory back.
+ */
+public class OffHeapLongSkipListSet extends AbstractSet<Long> implements SortedSet<Long>, AutoCloseable {
+    /*
+
+    Tower layout, in 8-byte words starting at its word index:
+
+        word 0          key (long)
+        word 1          prev (int) | levels (int)
+        word 2...       next pointers (int), two per word
+
+    Word index 0 is the head tower; NIL marks the end of a level (and of a free list)
+
+    */
+
+    private static final int NIL = -1;
+    private static final int HEAD = 0;
+
+    private static final long KEY = 0;
+    private static final long PREV = 8;
+    private static final long LEVELS = 12;
+    private static final long NEXT = 16;
+
+    static final int MAX_LEVEL = 32;
+
+    private static final int CHUNK_SHIFT = 20; // 2^20 words = 8 MiB per chunk
+    private static final int CHUNK_WORDS = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_WORDS - 1;
+
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment[] chunks = new MemorySegment[4];
+    private int chunkCount;
+
+    private int nextFreeWord; // Bump pointer for words that were never handed out
+    private final int[] freeTowers = new int[MAX_LEVEL + 1]; // Free list heads, indexed by tower height
+
+    private final int[] update = new int[MAX_LEVEL]; // Scratch predecessors, one per level, reused between calls
+
+    private int tail; // Last tower on the bottom level, or HEAD if the list is empty
+    private int height; // Height of list
+    private int size; // Amount of unique elements in list
+
+    private final SkipListLevelGenerator levelGenerator; // Decides how tall new towers get
+
+    public OffHeapLongSkipListSet(){
+        this(SkipListLevelGenerator.geometric(SkipListLevelGenerator.HALF, MAX_LEVEL));
+    }
+
+    /** Use a specific level generator, e.g. p = 1/4 for fewer pointers per key, or a seeded one for reproducible layouts */
+    public OffHeapLongSkipListSet(SkipListLevelGenerator levelGenerator){
+        this.levelGenerator = levelGenerator;
+
+        clear();
+    }
+
+    /** AUX: Words a tower with this many levels takes up */
+    private static int wordsFor(int levels){
+        return 2 + (levels + 1) / 2;
+    }
+
+    /** AUX: Chunk holding a word index */
+    private MemorySegment chunk(int word){
+        return chunks[word >>> CHUNK_SHIFT];
+    }
+
+    /** AUX: Byte offset of a word index within its chunk */
+    private static long offset(int word){
+        return (long) (word & CHUNK_MASK) << 3;
+    }
+
+    private long key(int tower){
+        return chunk(tower).get(ValueLayout.JAVA_LONG, offset(tower) + KEY);
+    }
+
+    private int prev(int tower){
+        return chunk(tower).get(ValueLayout.JAVA_INT, offset(tower) + PREV);
+    }
+
+    private int levels(int tower){
+        return chunk(tower).get(ValueLayout.JAVA_INT, offset(tower) + LEVELS);
+    }
+
+    private int nextAt(int tower, int level){
+        return chunk(tower).get(ValueLayout.JAVA_INT, offset(tower) + NEXT + 4L * level);
+    }
+
+    private void setKey(int tower, long key){
+        chunk(tower).set(ValueLayout.JAVA_LONG, offset(tower) + KEY, key);
+    }
+
+    private void setPrev(int tower, int prev){
+        chunk(tower).set(ValueLayout.JAVA_INT, offset(tower) + PREV, prev);
+    }
+
+    private void setLevels(int tower, int levels){
+        chunk(tower).set(ValueLayout.JAVA_INT, offset(tower) + LEVELS, levels);
+    }
+
+    private void setNextAt(int tower, int level, int next){
+        chunk(tower).set(ValueLayout.JAVA_INT, offset(tower) + NEXT + 4L * level, next);
+    }
+
+    /** AUX: Hand out a tower, reusing a freed one of the same height when possible */
+    private int allocateTower(int levels){
+        int tower = freeTowers[levels];
+
+        if (tower != NIL){
+            // Free towers are chained through their bottom level pointer
+            freeTowers[levels] = nextAt(tower, 0);
+            return tower;
+        }
+
+        int words = wordsFor(levels);
+
+        // Towers never straddle chunks; skip the leftover words at the end of a full one
+        if ((nextFreeWord & CHUNK_MASK) + words > CHUNK_WORDS){
+            nextFreeWord = (nextFreeWord | CHUNK_MASK) + 1;
+
+            if (nextFreeWord < 0){
+                throw new OutOfMemoryError("Off-heap skip list is out of addressable words");
+            }
+        }
+
+        if ((nextFreeWord >>> CHUNK_SHIFT) >= chunkCount){
+            addChunk();
+        }
+
+        tower = nextFreeWord;
+        nextFreeWord += words;
+
+        setLevels(tower, levels);
+        return tower;
+    }
+
+    /** AUX: Put a removed tower on its free list */
+    private void freeTower(int tower){
+        int levels = levels(tower);
+
+        setNextAt(tower, 0, freeTowers[levels]);
+        freeTowers[levels] = tower;
+    }
+
+    /** AUX: Allocate the next off-heap chunk */
+    private void addChunk(){
+        if (chunkCount == chunks.length){
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+
+        chunks[chunkCount] = arena.allocate((long) CHUNK_WORDS << 3, 8);
+        chunkCount++;
+    }
+
+    /** AUX: Fills update[] with the last tower strictly before key on every level */
+    private void findPredecessors(long key){
+        int curr = HEAD;
+
+        for (int level = height - 1; level >= 0; level--){
+            int next = nextAt(curr, level);
+
+            while (next != NIL && key(next) < key){
+                curr = next;
+                next = nextAt(curr, level);
+            }
+
+            update[level] = curr;
+        }
+    }
+
+    /** AUX: First tower with key >= the given one, or NIL */
+    private int ceilingTower(long key){
+        int curr = HEAD;
+
+        for (int level = height - 1; level >= 0; level--){
+            int next = nextAt(curr, level);
+
+            while (next != NIL && key(next) < key){
+                curr = next;
+                next = nextAt(curr, level);
+            }
+        }
+
+        return nextAt(curr, 0);
+    }
+
+    /** Add to skip list */
+    public boolean add(long key){
+        findPredecessors(key);
+
+        // Don't modify the set on a duplicate key
+        int existing = nextAt(update[0], 0);
+        if (existing != NIL && key(existing) == key){
+            return false;
+        }
+
+        // The head tower is only MAX_LEVEL tall, whatever the generator allows
+        int heightOfNewKey = Math.min(levelGenerator.nextLevel(), MAX_LEVEL);
+
+        // New levels start out at the head
+        for (int level = height; level < heightOfNewKey; level++){
+            update[level] = HEAD;
+        }
+        height = Math.max(height, heightOfNewKey);
+
+        int newTower = allocateTower(heightOfNewKey);
+        setKey(newTower, key);
+
+        for (int level = 0; level < heightOfNewKey; level++){
+            setNextAt(newTower, level, nextAt(update[level], level));
+            setNextAt(update[level], level, newTower);
+        }
+
+        setPrev(newTower, update[0]);
+
+        int after = nextAt(newTower, 0);
+        if (after != NIL){
+            setPrev(after, newTower);
+        } else {
+            tail = newTower;
+        }
+
+        // Set was modified if we reach this point
+        size++;
+        return true;
+    }
+
+    /** Add to skip list */
+    @Override
+    public boolean add(Long key){
+        // Passed in nothing
+        if (key == null){
+            return false;
+        }
+
+        return add(key.longValue());
+    }
+
+    /** Remove from skip list */
+    public boolean remove(long key){
+        findPredecessors(key);
+
+        int towerToBeRemoved = nextAt(update[0], 0);
+
+        // Can't remove key that doesn't exist!
+        if (towerToBeRemoved == NIL || key(towerToBeRemoved) != key){
+            return false;
+        }
+
+        int levels = levels(towerToBeRemoved);
+        for (int level = 0; level < levels; level++){
+            setNextAt(update[level], level, nextAt(towerToBeRemoved, level));
+        }
+
+        int after = nextAt(towerToBeRemoved, 0);
+        if (after != NIL){
+            setPrev(after, prev(towerToBeRemoved));
+        } else {
+            tail = prev(towerToBeRemoved);
+        }
+
+        freeTower(towerToBeRemoved);
+
+        // Set was modified at this point
+        size--;
+        return true;
+    }
+
+    /** Remove from skip list */
+    @Override
+    public boolean remove(Object o){
+        return o instanceof Long && remove(((Long) o).longValue());
+    }
+
+    /** Return whether key exists in the skip list */
+    public boolean contains(long key){
+        int tower = ceilingTower(key);
+
+        return tower != NIL && key(tower) == key;
+    }
+
+    /** Return whether o exists in the skip list */
+    @Override
+    public boolean contains(Object o){
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    /** Return first element in skip list */
+    public long firstLong(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return key(nextAt(HEAD, 0));
+    }
+
+    /** Return last element in skip list */
+    public long lastLong(){
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        return key(tail);
+    }
+
+    @Override
+    public Long first(){
+        return firstLong();
+    }
+
+    @Override
+    public Long last(){
+        return lastLong();
+    }
+
+    /** Natural ordering; there is no comparator */
+    @Override
+    public Comparator<? super Long> comparator(){
+        return null;
+    }
+
+    /** Return skip list size */
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /** Return whether skip list is empty */
+    @Override
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    /** Primitive iterator over the bottom level, optionally bounded by an exclusive upper key */
+    public class OffHeapLongSkipListSetIterator implements PrimitiveIterator.OfLong {
+        private int curr;
+        private int last = NIL;
+
+        private final boolean bounded;
+        private final long toKey;
+
+        OffHeapLongSkipListSetIterator(int start, boolean bounded, long toKey){
+            this.curr = start;
+            this.bounded = bounded;
+            this.toKey = toKey;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return curr != NIL && (!bounded || key(curr) < toKey);
+        }
+
+        @Override
+        public long nextLong(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = curr;
+            curr = nextAt(curr, 0);
+
+            return key(last);
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == NIL){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            // The freed tower may be handed out again, but curr was read before that
+            OffHeapLongSkipListSet.this.remove(key(last));
+            last = NIL;
+        }
+    }
+
+    /** Return iterator over every key */
+    @Override
+    public OffHeapLongSkipListSetIterator iterator(){
+        return new OffHeapLongSkipListSetIterator(nextAt(HEAD, 0), false, 0);
+    }
+
+    /** Return iterator over keys in [fromKey, toKey) */
+    public OffHeapLongSkipListSetIterator iterator(long fromKey, long toKey){
+        return new OffHeapLongSkipListSetIterator(ceilingTower(fromKey), true, toKey);
+    }
+
+    /** Return subset of skip list, including start and excluding end */
+    @Override
+    public SortedSet<Long> subSet(Long fromElement, Long toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).subSet(fromElement, toElement);
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<Long> headSet(Long toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).headSet(toElement);
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<Long> tailSet(Long fromElement){
+        return SkipListSetView.of(this, new ViewNavigation()).tailSet(fromElement);
+    }
+
+    /** Range scans for the views; the last key of a range is found by a search from the top, not a scan */
+    private class ViewNavigation implements SkipListSetView.Navigation<Long> {
+        @Override
+        public Iterator<Long> iterator(Long fromElement, Long toElement){
+            int start = fromElement == null ? nextAt(HEAD, 0) : ceilingTower(fromElement);
+
+            return new OffHeapLongSkipListSetIterator(start, toElement != null, toElement == null ? 0 : toElement);
+        }
+
+        @Override
+        public Long highest(Long fromElement, Long toElement){
+            int tower;
+
+            if (toElement != null){
+                findPredecessors(toElement);
+                tower = update[0];
+            } else {
+                tower = tail;
+            }
+
+            if (tower == HEAD || (fromElement != null && key(tower) < fromElement)){
+                return null;
+            }
+
+            return key(tower);
+        }
+    }
+
+    /** Copy every key out in order */
+    public long[] toLongArray(){
+        long[] array = new long[size];
+
+        int i = 0;
+        for (int curr = nextAt(HEAD, 0); curr != NIL; curr = nextAt(curr, 0)){
+            array[i] = key(curr);
+            i++;
+        }
+
+        return array;
+    }
+
+    /** Clears the skip list; chunks already allocated stay around and get reused */
+    @Override
+    public void clear(){
+        size = 0;
+        height = 1; // The bottom level always exists, even when empty
+
+        Arrays.fill(freeTowers, NIL);
+        nextFreeWord = 0;
+
+        // Head takes the very first words
+        int head = allocateTower(MAX_LEVEL);
+        for (int level = 0; level < MAX_LEVEL; level++){
+            setNextAt(head, level, NIL);
+        }
+
+        tail = HEAD;
+    }
+
+    /** Off-heap bytes currently reserved by this set */
+    public long reservedBytes(){
+        return (long) chunkCount * CHUNK_WORDS << 3;
+    }
+
+    /** Releases the off-heap memory; the set can't be used afterwards */
+    @Override
+    public void close(){
+        arena.close();
+        chunks = new MemorySegment[0];
+        chunkCount = 0;
+    }
+}
@@ -0,0 +1,724 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Thread-safe set made of SkipListSet partitions, each owning one key range and guarded by its own lock, so threads
+ * working on different ranges never touch the same lock or the same head. Point operations find their shard with one
+ * binary search over the range boundaries; bulk operations are split up by shard and run in parallel on a fork-join
+ * pool. A shard that outgrows its share is split in two at its median, without copying, by SkipListSet.splitAt().
+ * Iterators and views are weakly consistent: they read the set in batches, one shard lock at a time.
+ */
+public class ShardedSkipListSet<T> extends AbstractSet<T> implements SortedSet<T> {
+    /** One key range [lowerBound, next shard's lowerBound) and the skip list holding it */
+    static final class Shard<T> {
+        final T lowerBound; // Null for the first shard
+        final SkipListSet<T> set;
+        final ReentrantLock lock = new ReentrantLock();
+
+        boolean retired; // Replaced by a split; only read or written under lock
+
+        Shard(T lowerBound, SkipListSet<T> set){
+            this.lowerBound = lowerBound;
+            this.set = set;
+        }
+    }
+
+    // Never swapped in place: a split publishes a whole new array
+    private volatile Shard<T>[] shards;
+
+    private final LongAdder size = new LongAdder(); // Amount of unique elements over all shards
+
+    private final Comparator<? super T> comparator;
+    private final ForkJoinPool pool;
+
+    private final int splitThreshold; // Size a shard has to reach before it gets split
+    private final int maxShards;
+
+    private static final int DEFAULT_SPLIT_THRESHOLD = 1 << 16;
+    private static final int DEFAULT_MAX_SHARDS = 1 << 10;
+
+    private static final int BATCH = 64; // Keys an iterator copies out per shard lock
+    private static final int PARALLEL_THRESHOLD = 1 << 10; // Below this many keys bulk operations stay on the caller
+
+    public ShardedSkipListSet(){
+        this(null, Collections.emptyList());
+    }
+
+    /** Start out with a shard per range between the given, strictly ascending boundaries */
+    public ShardedSkipListSet(Comparator<? super T> comparator, List<? extends T> boundaries){
+        this(comparator, boundaries, ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD, DEFAULT_MAX_SHARDS);
+    }
+
+    /** Full control: the pool bulk operations run on, and how large a shard may grow before it's split (up to maxShards) */
+    public ShardedSkipListSet(Comparator<? super T> comparator, List<? extends T> boundaries, ForkJoinPool pool, int splitThreshold, int maxShards){
+        if (splitThreshold < 2 || maxShards < 1){
+            throw new IllegalArgumentException("Need a split threshold of at least 2 and at least one shard");
+        }
+
+        this.comparator = comparator;
+        this.pool = pool;
+        this.splitThreshold = splitThreshold;
+        this.maxShards = maxShards;
+
+        Shard<T>[] initial = newShardArray(boundaries.size() + 1);
+        initial[0] = new Shard<>(null, new SkipListSet<>(comparator));
+
+        for (int i = 0; i < boundaries.size(); i++){
+            T boundary = Objects.requireNonNull(boundaries.get(i));
+
+            if (i > 0 && SkipListSet.compare(comparator, boundaries.get(i - 1), boundary) >= 0){
+                throw new IllegalArgumentException("Boundaries must be strictly ascending");
+            }
+
+            initial[i + 1] = new Shard<>(boundary, new SkipListSet<>(comparator));
+        }
+
+        this.shards = initial;
+    }
+
+    /** Pick boundaries at the quantiles of a sample of the keys to expect, so the shards start out about equally full */
+    public static <T> ShardedSkipListSet<T> sampled(Collection<? extends T> sample, int shardCount, Comparator<? super T> comparator){
+        SkipListSet<T> sorted = new SkipListSet<>(comparator);
+        sorted.addAll(sample);
+
+        List<T> boundaries = new ArrayList<>();
+        Iterator<T> iterator = sorted.iterator();
+
+        for (int i = 0, position = 0; i < shardCount - 1 && iterator.hasNext(); i++){
+            int target = (int) ((long) (i + 1) * sorted.size() / shardCount);
+
+            T key = null;
+            while (position <= target && iterator.hasNext()){
+                key = iterator.next();
+                position++;
+            }
+
+            if (key != null && (boundaries.isEmpty() || SkipListSet.compare(comparator, boundaries.get(boundaries.size() - 1), key) < 0)){
+                boundaries.add(key);
+            }
+        }
+
+        return new ShardedSkipListSet<>(comparator, boundaries);
+    }
+
+    /** AUX: Index of the shard owning key in the given table: the last one whose lower bound is <= key */
+    private int route(Shard<T>[] table, T key){
+        int low = 1;
+        int high = table.length - 1;
+
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+
+            if (SkipListSet.compare(comparator, table[middle].lowerBound, key) <= 0){
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low - 1;
+    }
+
+    /** AUX: Lock and return the live shard owning key; a shard retired by a split in the meantime means routing again */
+    private Shard<T> lockShardFor(T key){
+        while (true){
+            Shard<T>[] table = shards;
+            Shard<T> shard = table[route(table, key)];
+
+            shard.lock.lock();
+
+            if (!shard.retired){
+                return shard;
+            }
+
+            shard.lock.unlock();
+        }
+    }
+
+    /** AUX: Whether a shard has grown enough to be split; called under its lock */
+    private boolean needsSplit(Shard<T> shard){
+        return shard.set.size() >= splitThreshold && shards.length < maxShards;
+    }
+
+    /** AUX: Split a shard at its median into two new ones and publish them; the old shard retires */
+    private void split(Shard<T> shard){
+        shard.lock.lock();
+
+        try {
+            if (shard.retired || !needsSplit(shard)){
+                return;
+            }
+
+            // The set's own spliterator cuts near the median in O(log n); the first key of its back half is the boundary
+            Spliterator<T> back = shard.set.spliterator();
+            if (back.trySplit() == null){
+                return;
+            }
+
+            List<T> median = new ArrayList<>(1);
+            if (!back.tryAdvance(median::add)){
+                return;
+            }
+
+            SkipListSet<T> upper = shard.set.splitAt(median.get(0));
+
+            // Other splits only ever lock the shard they split first, so taking this monitor second can't deadlock
+            synchronized (this){
+                Shard<T>[] table = shards;
+
+                int index = 0;
+                while (table[index] != shard){
+                    index++;
+                }
+
+                Shard<T>[] newTable = newShardArray(table.length + 1);
+                System.arraycopy(table, 0, newTable, 0, index);
+                newTable[index] = new Shard<>(shard.lowerBound, shard.set);
+                newTable[index + 1] = new Shard<>(median.get(0), upper);
+                System.arraycopy(table, index + 1, newTable, index + 2, table.length - index - 1);
+
+                shards = newTable;
+            }
+
+            // Anyone queued on the old lock re-routes to the new shards
+            shard.retired = true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    @Override
+    public Comparator<? super T> comparator(){
+        return comparator;
+    }
+
+    /** Amount of shards right now */
+    public int shardCount(){
+        return shards.length;
+    }
+
+    @Override
+    public boolean add(T key){
+        Objects.requireNonNull(key);
+
+        Shard<T> shard = lockShardFor(key);
+        boolean added;
+        boolean split;
+
+        try {
+            added = shard.set.add(key);
+            split = added && needsSplit(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+
+        if (added){
+            size.increment();
+        }
+
+        if (split){
+            split(shard);
+        }
+
+        return added;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o){
+        if (o == null){
+            return false;
+        }
+
+        Shard<T> shard = lockShardFor((T) o);
+        boolean removed;
+
+        try {
+            removed = shard.set.remove(o);
+        } finally {
+            shard.lock.unlock();
+        }
+
+        if (removed){
+            size.decrement();
+        }
+
+        return removed;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o){
+        if (o == null){
+            return false;
+        }
+
+        Shard<T> shard = lockShardFor((T) o);
+
+        try {
+            return shard.set.contains(o);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * AUX: Copy up to BATCH keys > after (>= after if inclusive, everything if after is null) and < toElement (if
+     * given) into batch, one shard lock at a time; returns whether there may be more after the last one copied
+     */
+    private boolean fetch(T after, boolean inclusive, T toElement, List<T> batch){
+        retry:
+        while (true){
+            batch.clear();
+
+            Shard<T>[] table = shards;
+
+            for (int index = after == null ? 0 : route(table, after); index < table.length; index++){
+                Shard<T> shard = table[index];
+
+                shard.lock.lock();
+
+                try {
+                    // Keys may have moved to shards this table doesn't know about yet
+                    if (shard.retired){
+                        continue retry;
+                    }
+
+                    NavigableSet<T> keys = after == null ? shard.set : shard.set.tailSet(after, inclusive);
+
+                    for (T key : keys){
+                        if (toElement != null && SkipListSet.compare(comparator, key, toElement) >= 0){
+                            return false;
+                        }
+
+                        batch.add(key);
+
+                        if (batch.size() == BATCH){
+                            return true;
+                        }
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /** Weakly consistent iterator walking the shards in key order, a batch at a time */
+    private class ShardedSkipListSetIterator implements Iterator<T> {
+        private final List<T> batch = new ArrayList<>(BATCH);
+        private int position;
+        private boolean more;
+
+        private final T toElement; // Exclusive upper bound, null if unbounded
+
+        private T last;
+
+        ShardedSkipListSetIterator(T fromElement, T toElement){
+            this.toElement = toElement;
+            this.more = fetch(fromElement, true, toElement, batch);
+        }
+
+        @Override
+        public boolean hasNext(){
+            if (position < batch.size()){
+                return true;
+            }
+
+            if (!more){
+                return false;
+            }
+
+            // Carry on right after the last key handed out
+            more = fetch(batch.get(batch.size() - 1), false, toElement, batch);
+            position = 0;
+
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public T next(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = batch.get(position++);
+            return last;
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == null){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
+            ShardedSkipListSet.this.remove(last);
+            last = null;
+        }
+    }
+
+    /** Return iterator */
+    @Override
+    public Iterator<T> iterator(){
+        return new ShardedSkipListSetIterator(null, null);
+    }
+
+    /** Return set size; only a snapshot while other threads are writing */
+    @Override
+    public int size(){
+        // A remove's decrement can land before the matching add's increment, so the sum may dip below zero
+        return (int) Math.max(0, Math.min(size.sum(), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return !iterator().hasNext();
+    }
+
+    /** AUX: Least key >= fromElement (anything if null) and < toElement (anything if null), or null */
+    private T lowestIn(T fromElement, T toElement){
+        Iterator<T> iterator = new ShardedSkipListSetIterator(fromElement, toElement);
+
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /** AUX: Greatest key >= fromElement (anything if null) and < toElement (anything if null), or null */
+    private T highestIn(T fromElement, T toElement){
+        retry:
+        while (true){
+            Shard<T>[] table = shards;
+
+            for (int index = toElement == null ? table.length - 1 : route(table, toElement); index >= 0; index--){
+                Shard<T> shard = table[index];
+
+                shard.lock.lock();
+
+                try {
+                    if (shard.retired){
+                        continue retry;
+                    }
+
+                    T key = toElement != null ? shard.set.lower(toElement)
+                            : shard.set.isEmpty() ? null : shard.set.last();
+
+                    if (key != null){
+                        return fromElement == null || SkipListSet.compare(comparator, key, fromElement) >= 0 ? key : null;
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    @Override
+    public T first(){
+        T first = lowestIn(null, null);
+
+        if (first == null){
+            throw new NoSuchElementException();
+        }
+
+        return first;
+    }
+
+    @Override
+    public T last(){
+        T last = highestIn(null, null);
+
+        if (last == null){
+            throw new NoSuchElementException();
+        }
+
+        return last;
+    }
+
+    /** AUX: Run one task per non-empty group on the pool (or inline if there's little work) and sum what they return */
+    private int runPerShard(List<ForkJoinTask<Integer>> tasks, long work){
+        int total = 0;
+
+        if (work < PARALLEL_THRESHOLD){
+            for (ForkJoinTask<Integer> task : tasks){
+                total += task.invoke();
+            }
+
+            return total;
+        }
+
+        for (ForkJoinTask<Integer> task : tasks){
+            pool.execute(task);
+        }
+
+        for (ForkJoinTask<Integer> task : tasks){
+            total += task.join();
+        }
+
+        return total;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Shard<T>[] newShardArray(int length){
+        return (Shard<T>[]) new Shard<?>[length];
+    }
+
+    /** AUX: Group keys by the shard owning them in the given table */
+    @SuppressWarnings("unchecked")
+    private List<T>[] groupByShard(Shard<T>[] table, Collection<?> keys){
+        List<T>[] groups = (List<T>[]) new List<?>[table.length];
+
+        for (Object o : keys){
+            if (o == null){
+                continue;
+            }
+
+            T key = (T) o;
+            int index = route(table, key);
+
+            if (groups[index] == null){
+                groups[index] = new ArrayList<>();
+            }
+
+            groups[index].add(key);
+        }
+
+        return groups;
+    }
+
+    /** Add a collection of keys; they're grouped by shard and every shard takes its group in parallel */
+    @Override
+    public boolean addAll(Collection<? extends T> c){
+        Shard<T>[] table = shards;
+        List<T>[] groups = groupByShard(table, c);
+
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < table.length; i++){
+            Shard<T> shard = table[i];
+            List<T> group = groups[i];
+
+            if (group == null){
+                continue;
+            }
+
+            tasks.add(ForkJoinTask.adapt(() -> {
+                int added = 0;
+                boolean retired;
+                boolean split = false;
+
+                shard.lock.lock();
+
+                try {
+                    retired = shard.retired;
+
+                    if (!retired){
+                        int before = shard.set.size();
+                        shard.set.addAll(group);
+
+                        added = shard.set.size() - before;
+                        split = needsSplit(shard);
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+
+                size.add(added);
+
+                if (split){
+                    split(shard);
+                }
+
+                // The shard got split before we got to it; fall back to routing key by key
+                if (retired){
+                    for (T key : group){
+                        if (add(key)){
+                            added++;
+                        }
+                    }
+                }
+
+                return added;
+            }));
+        }
+
+        return runPerShard(tasks, c.size()) > 0;
+    }
+
+    /** Remove a collection of keys; they're grouped by shard and every shard drops its group in parallel */
+    @Override
+    public boolean removeAll(Collection<?> c){
+        Shard<T>[] table = shards;
+        List<T>[] groups = groupByShard(table, c);
+
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+
+        for (int i = 0; i < table.length; i++){
+            Shard<T> shard = table[i];
+            List<T> group = groups[i];
+
+            if (group == null){
+                continue;
+            }
+
+            tasks.add(ForkJoinTask.adapt(() -> {
+                int removed = 0;
+                boolean retired;
+
+                shard.lock.lock();
+
+                try {
+                    retired = shard.retired;
+
+                    if (!retired){
+                        int before = shard.set.size();
+                        shard.set.removeAll(group);
+
+                        removed = before - shard.set.size();
+                    }
+                } finally {
+                    shard.lock.unlock();
+                }
+
+                size.add(-removed);
+
+                // The shard got split before we got to it; fall back to routing key by key
+                if (retired){
+                    for (T key : group){
+                        if (remove(key)){
+                            removed++;
+                        }
+                    }
+                }
+
+                return removed;
+            }));
+        }
+
+        return runPerShard(tasks, c.size()) > 0;
+    }
+
+    /** Keep only keys in c, every shard filtering itself in parallel; c has to be safe to read from several threads */
+    @Override
+    public boolean retainAll(Collection<?> c){
+        return reduce(set -> {
+            int before = set.size();
+            set.retainAll(c);
+
+            int removed = before - set.size();
+            size.add(-removed);
+
+            return removed;
+        }, Integer::sum) > 0;
+    }
+
+    /** Remove everything; concurrent adds to shards already cleared survive it */
+    @Override
+    public void clear(){
+        reduce(set -> {
+            size.add(-set.size());
+            set.clear();
+
+            return 0;
+        }, Integer::sum);
+    }
+
+    /**
+     * Aggregate over the whole set in parallel: mapper runs once per shard, under that shard's lock, and the results
+     * are combined in key order. mapper may change the shard it's handed only by removing keys, and may run again on
+     * the same keys if a concurrent split forces a retry.
+     */
+    public <R> R reduce(Function<? super NavigableSet<T>, ? extends R> mapper, BinaryOperator<R> combiner){
+        retry:
+        while (true){
+            Shard<T>[] table = shards;
+
+            List<ForkJoinTask<R>> tasks = new ArrayList<>();
+            boolean[] retired = new boolean[1];
+
+            for (Shard<T> shard : table){
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    shard.lock.lock();
+
+                    try {
+                        if (shard.retired){
+                            retired[0] = true;
+                            return null;
+                        }
+
+                        return mapper.apply(shard.set);
+                    } finally {
+                        shard.lock.unlock();
+                    }
+                }));
+            }
+
+            if (table.length == 1 || size.sum() < PARALLEL_THRESHOLD){
+                for (ForkJoinTask<R> task : tasks){
+                    task.invoke();
+                }
+            } else {
+                for (ForkJoinTask<R> task : tasks){
+                    pool.execute(task);
+                }
+            }
+
+            for (ForkJoinTask<R> task : tasks){
+                task.join();
+            }
+
+            // A split moved keys between shards while we ran; throw the partial results away and go over the new shards
+            if (retired[0]){
+                continue retry;
+            }
+
+            R result = tasks.get(0).join();
+
+            for (int i = 1; i < tasks.size(); i++){
+                result = combiner.apply(result, tasks.get(i).join());
+            }
+
+            return result;
+        }
+    }
+
+    /** Return subset of the set, including start and excluding end */
+    @Override
+    public SortedSet<T> subSet(T fromElement, T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).subSet(fromElement, toElement);
+    }
+
+    /** Return subset of everything before toElement */
+    @Override
+    public SortedSet<T> headSet(T toElement){
+        return SkipListSetView.of(this, new ViewNavigation()).headSet(toElement);
+    }
+
+    /** Return subset of everything from fromElement onwards */
+    @Override
+    public SortedSet<T> tailSet(T fromElement){
+        return SkipListSetView.of(this, new ViewNavigation()).tailSet(fromElement);
+    }
+
+    /** Weakly consistent range scans for the views */
+    private class ViewNavigation implements SkipListSetView.Navigation<T> {
+        @Override
+        public Iterator<T> iterator(T fromElement, T toElement){
+            return new ShardedSkipListSetIterator(fromElement, toElement);
+        }
+
+        @Override
+        public T highest(T fromElement, T toElement){
+            return highestIn(fromElement, toElement);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark driver comparing SkipListSet against TreeSet and ConcurrentSkipListSet.
+ *
+ * Usage: java SkipListBenchmark [sizes=1000,10000,...] [distributions=uniform,sequential,...] [rounds=N]
+ *                                [sets=SkipListSet,TreeSet,...] [fork=false]
+ *
+ * Every (distribution, size, set, operation) cell is warmed up and then measured over several rounds;
+ * the best round is reported as throughput, average latency and bytes allocated per operation. Each set runs in a
+ * JVM of its own (unless fork=false), so the shared operation code only ever sees one set class and the sets
+ * measured first don't shape the JIT profile of the ones after them. This is a quick harness, not JMH: numbers
+ * within a few percent of each other are noise.
+ */
+public class SkipListBenchmark {
+    /** Key streams to feed the sets with */
+    enum Distribution {
+        UNIFORM, SEQUENTIAL, ZIPFIAN, ADVERSARIAL
+    }
+
+    /** One measured operation; runs over a prepared set (sorted holds its contents in order) and returns how many ops it did */
+    interface Operation {
+        long run(SortedSet<Integer> set, Integer[] keys, Integer[] sorted);
+    }
+
+    /** Untimed preparation before every round of an operation, e.g. restoring what the last round took away */
+    interface Setup {
+        void run(SortedSet<Integer> set, Integer[] keys);
+    }
+
+    private static final Map<String, Supplier<SortedSet<Integer>>> SETS = new LinkedHashMap<>();
+    private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<>();
+    private static final Map<String, Setup> SETUPS = new HashMap<>();
+
+    private static final int RANGE_QUERIES = 1000;
+    private static final int RANGE_WIDTH = 1000;
+
+    // Keeps results alive so the JIT can't throw the work away
+    private static long blackhole;
+
+    static {
+        SETS.put("SkipListSet", SkipListSet::new);
+        SETS.put("TreeSet", TreeSet::new);
+        SETS.put("ConcurrentSkipListSet", ConcurrentSkipListSet::new);
+        SETS.put("ShardedSkipListSet", ShardedSkipListSet::new);
+        SETS.put("BlockSkipListSet", BlockSkipListSet::new);
+
+        OPERATIONS.put("add", (set, keys, sorted) -> {
+            set.clear();
+            for (Integer key : keys){
+                set.add(key);
+            }
+
+            return keys.length;
+        });
+
+        OPERATIONS.put("contains", (set, keys, sorted) -> {
+            long hits = 0;
+            for (Integer key : keys){
+                if (set.contains(key)){
+                    hits++;
+                }
+            }
+
+            blackhole += hits;
+            return keys.length;
+        });
+
+        OPERATIONS.put("iterator", (set, keys, sorted) -> {
+            long sum = 0;
+            for (Integer key : set){
+                sum += key;
+            }
+
+            blackhole += sum;
+            return Math.max(set.size(), 1);
+        });
+
+        OPERATIONS.put("subSet", (set, keys, sorted) -> rangeQueries(set, sorted, 0));
+        OPERATIONS.put("headSet", (set, keys, sorted) -> rangeQueries(set, sorted, 1));
+        OPERATIONS.put("tailSet", (set, keys, sorted) -> rangeQueries(set, sorted, 2));
+
+        OPERATIONS.put("cursorScan", (set, keys, sorted) -> {
+            if (!(set instanceof SkipListSet) || sorted.length == 0){
+                return 0;
+            }
+
+            // One cursor for the whole round; the scans themselves should allocate nothing
+            SkipListSet<Integer>.Cursor cursor = ((SkipListSet<Integer>) set).cursor();
+
+            long sum = 0;
+            for (int i = 0; i < RANGE_QUERIES; i++){
+                int from = (int) ((long) i * sorted.length / RANGE_QUERIES);
+
+                cursor.seek(sorted[from]);
+                for (int step = 0; step < RANGE_WIDTH && cursor.valid(); step++){
+                    sum += cursor.key();
+                    cursor.next();
+                }
+            }
+
+            blackhole += sum;
+            return RANGE_QUERIES;
+        });
+
+        OPERATIONS.put("remove", (set, keys, sorted) -> {
+            for (Integer key : keys){
+                set.remove(key);
+            }
+
+            return keys.length;
+        });
+
+        // Put everything back before each round, outside the measured interval
+        SETUPS.put("remove", (set, keys) -> Collections.addAll(set, keys));
+
+        OPERATIONS.put("reBalance", (set, keys, sorted) -> {
+            if (!(set instanceof SkipListSet)){
+                return 0;
+            }
+
+            ((SkipListSet<Integer>) set).reBalance();
+            return Math.max(set.size(), 1);
+        });
+    }
+
+    /** AUX: Run range views near the top of the set (headSet/tailSet) or spread over it (subSet) */
+    private static long rangeQueries(SortedSet<Integer> set, Integer[] sorted, int kind){
+        if (sorted.length == 0){
+            return 0;
+        }
+
+        long count = 0;
+
+        for (int i = 0; i < RANGE_QUERIES; i++){
+            int from = (int) ((long) i * sorted.length / RANGE_QUERIES);
+            int to = Math.min(from + RANGE_WIDTH, sorted.length - 1);
+
+            SortedSet<Integer> view;
+            if (kind == 0){
+                view = set.subSet(sorted[from], sorted[to]);
+            } else if (kind == 1){
+                view = set.headSet(sorted[Math.min(RANGE_WIDTH, sorted.length - 1)]);
+            } else {
+                view = set.tailSet(sorted[Math.max(sorted.length - RANGE_WIDTH, 0)]);
+            }
+
+            for (Integer key : view){
+                count += key;
+            }
+        }
+
+        blackhole += count;
+        return RANGE_QUERIES;
+    }
+
+    /** AUX: Build a key stream of the given shape */
+    static Integer[] generateKeys(Distribution distribution, int size, long seed){
+        Random random = new Random(seed);
+        Integer[] keys = new Integer[size];
+
+        switch (distribution){
+            case UNIFORM:
+                for (int i = 0; i < size; i++){
+                    keys[i] = random.nextInt();
+                }
+                break;
+            case SEQUENTIAL:
+                for (int i = 0; i < size; i++){
+                    keys[i] = i;
+                }
+                break;
+            case ZIPFIAN:
+                // Ranks are hashed like YCSB's scrambled Zipfian, so the popular keys are spread over the key space
+                // instead of piling up at its low end
+                ZipfianGenerator zipfian = new ZipfianGenerator(size, 0.99, random);
+                for (int i = 0; i < size; i++){
+                    keys[i] = (int) fnv1a64(zipfian.next());
+                }
+                break;
+            case ADVERSARIAL:
+                // Alternating ends, closing in on the middle: every insert lands between the two halves, so each
+                // search goes all the way down, and consecutive ones are far apart (no use for a finger or an append)
+                for (int i = 0; i < size; i++){
+                    keys[i] = (i & 1) == 0 ? i / 2 : size - 1 - i / 2;
+                }
+                break;
+        }
+
+        return keys;
+    }
+
+    /** AUX: FNV-1a hash of the 8 bytes of a long */
+    static long fnv1a64(long value){
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < Long.BYTES; i++){
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+
+        return hash;
+    }
+
+    /** YCSB-style Zipfian generator over [0, items) */
+    static class ZipfianGenerator {
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random random;
+
+        ZipfianGenerator(int items, double theta, Random random){
+            this.items = items;
+            this.theta = theta;
+            this.random = random;
+
+            double zeta = 0;
+            for (int i = 1; i <= items; i++){
+                zeta += 1 / Math.pow(i, theta);
+            }
+
+            double zeta2 = 1 + 1 / Math.pow(2, theta);
+
+            this.zetan = zeta;
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        int next(){
+            double u = random.nextDouble();
+            double uz = u * zetan;
+
+            if (uz < 1){
+                return 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)){
+                return 1;
+            }
+
+            return (int) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+    }
+
+    /** AUX: Bytes allocated by the current thread so far, or -1 if the JVM can't tell */
+    private static long allocatedBytes(){
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+
+        return -1;
+    }
+
+    /** AUX: Measure one cell and print a result row */
+    private static void measure(String distribution, int size, String setName, String operationName, Integer[] keys, int rounds){
+        Operation operation = OPERATIONS.get(operationName);
+
+        SortedSet<Integer> set = SETS.get(setName).get();
+        Collections.addAll(set, keys);
+
+        Integer[] sorted = set.toArray(new Integer[0]);
+
+        double bestNanosPerOp = Double.MAX_VALUE;
+        double bytesPerOp = 0;
+
+        // First half of the rounds is warm-up
+        Setup setup = SETUPS.get(operationName);
+
+        for (int round = 0; round < rounds * 2; round++){
+            if (setup != null){
+                setup.run(set, keys);
+            }
+
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+
+            long ops = operation.run(set, keys, sorted);
+
+            long elapsed = System.nanoTime() - start;
+            long bytesAfter = allocatedBytes();
+
+            if (ops == 0){
+                return;
+            }
+
+            if (round >= rounds && (double) elapsed / ops < bestNanosPerOp){
+                bestNanosPerOp = (double) elapsed / ops;
+                bytesPerOp = bytesBefore < 0 ? Double.NaN : (double) (bytesAfter - bytesBefore) / ops;
+            }
+        }
+
+        System.out.printf("%-12s %10d %-22s %-10s %14.0f %12.1f %12.1f%n",
+                distribution, size, setName, operationName, 1e9 / bestNanosPerOp, bestNanosPerOp, bytesPerOp);
+    }
+
+    /** AUX: Run the benchmark for one set in a fresh JVM with the same flags and class path as this one */
+    private static void runForked(String setName, String[] args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SkipListBenchmark.class.getName());
+
+        // Later arguments win, so these narrow the original ones down to this set
+        command.addAll(Arrays.asList(args));
+        command.add("sets=" + setName);
+        command.add("fork=false");
+        command.add("header=false");
+
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+
+        if (exitCode != 0){
+            throw new IllegalStateException("Benchmark of " + setName + " exited with " + exitCode);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> sizes = Arrays.asList(1_000, 10_000, 100_000, 1_000_000, 10_000_000);
+        List<Distribution> distributions = Arrays.asList(Distribution.values());
+        List<String> setNames = new ArrayList<>(SETS.keySet());
+        int rounds = 3;
+        boolean fork = true;
+        boolean header = true;
+
+        for (String arg : args){
+            String[] parts = arg.split("=", 2);
+
+            if (parts[0].equals("sizes")){
+                sizes = new ArrayList<>();
+                for (String size : parts[1].split(",")){
+                    sizes.add(Integer.parseInt(size.replace("_", "")));
+                }
+            } else if (parts[0].equals("distributions")){
+                distributions = new ArrayList<>();
+                for (String distribution : parts[1].split(",")){
+                    distributions.add(Distribution.valueOf(distribution.toUpperCase()));
+                }
+            } else if (parts[0].equals("rounds")){
+                rounds = Integer.parseInt(parts[1]);
+            } else if (parts[0].equals("sets")){
+                setNames = Arrays.asList(parts[1].split(","));
+                for (String setName : setNames){
+                    if (!SETS.containsKey(setName)){
+                        throw new IllegalArgumentException("Unknown set: " + setName);
+                    }
+                }
+            } else if (parts[0].equals("fork")){
+                fork = Boolean.parseBoolean(parts[1]);
+            } else if (parts[0].equals("header")){
+                header = Boolean.parseBoolean(parts[1]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        if (header){
+            System.out.printf("%-12s %10s %-22s %-10s %14s %12s %12s%n",
+                    "keys", "size", "set", "op", "ops/s", "ns/op", "B/op");
+        }
+
+        if (fork){
+            for (String setName : setNames){
+                runForked(setName, args);
+            }
+
+            return;
+        }
+
+        for (Distribution distribution : distributions){
+            for (int size : sizes){
+                Integer[] keys = generateKeys(distribution, size, 42);
+
+                for (String operationName : OPERATIONS.keySet()){
+                    for (String setName : setNames){
+                        measure(distribution.name().toLowerCase(), size, setName, operationName, keys, rounds);
+                    }
+                }
+            }
+        }
+
+        // Print it so the work that fed it can't be optimized away
+        System.out.println("(checksum " + blackhole + ")");
+    }
+}
@@ -0,0 +1,185 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys into bytes and back for SkipListSetSnapshot. Keys are written in set order and every key is
+ * encoded relative to the one before it (null for the first), so codecs can store just the difference.
+ * Implementations should be stateless; one codec can serve any number of snapshots.
+ */
+public interface SkipListKeyCodec<T> {
+    /** Name stored in the snapshot header, checked on load so a file can't be read back with the wrong codec */
+    String id();
+
+    /** Upper bound on the bytes encode() will write for this key */
+    int maxEncodedSize(T key);
+
+    /** Write key to out, which has at least maxEncodedSize(key) bytes left */
+    void encode(T previous, T key, ByteBuffer out);
+
+    /**
+     * Read the key following previous back from in; a key running past the end of in must throw
+     * BufferUnderflowException, and bytes that can't be a key should throw IllegalArgumentException
+     */
+    T decode(T previous, ByteBuffer in);
+
+    /** Longs as zigzag varint deltas; dense sorted keys take a byte or two each */
+    static SkipListKeyCodec<Long> longs(){
+        return LongDeltaCodec.INSTANCE;
+    }
+
+    /** Integers as zigzag varint deltas */
+    static SkipListKeyCodec<Integer> integers(){
+        return IntDeltaCodec.INSTANCE;
+    }
+
+    /** Strings as the length of the prefix shared with the previous key, followed by the UTF-8 rest */
+    static SkipListKeyCodec<String> strings(){
+        return StringPrefixCodec.INSTANCE;
+    }
+
+    /** AUX: Unsigned LEB128; at most 10 bytes */
+    static void writeVarLong(ByteBuffer out, long value){
+        while ((value & ~0x7FL) != 0){
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    /** AUX: Inverse of writeVarLong() */
+    static long readVarLong(ByteBuffer in){
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7){
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+
+            if (b >= 0){
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /** AUX: Fold the sign into the lowest bit so small negative deltas (descending comparators) stay short */
+    static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /** AUX: Inverse of zigzag() */
+    static long unzigzag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    final class LongDeltaCodec implements SkipListKeyCodec<Long> {
+        static final LongDeltaCodec INSTANCE = new LongDeltaCodec();
+
+        @Override
+        public String id(){
+            return "long-delta";
+        }
+
+        @Override
+        public int maxEncodedSize(Long key){
+            return 10;
+        }
+
+        @Override
+        public void encode(Long previous, Long key, ByteBuffer out){
+            // Wraps around on overflow, which decode() undoes the same way
+            writeVarLong(out, zigzag(key - (previous == null ? 0 : previous)));
+        }
+
+        @Override
+        public Long decode(Long previous, ByteBuffer in){
+            return (previous == null ? 0 : previous) + unzigzag(readVarLong(in));
+        }
+    }
+
+    final class IntDeltaCodec implements SkipListKeyCodec<Integer> {
+        static final IntDeltaCodec INSTANCE = new IntDeltaCodec();
+
+        @Override
+        public String id(){
+            return "int-delta";
+        }
+
+        @Override
+        public int maxEncodedSize(Integer key){
+            return 10;
+        }
+
+        @Override
+        public void encode(Integer previous, Integer key, ByteBuffer out){
+            writeVarLong(out, zigzag((long) key - (previous == null ? 0 : previous)));
+        }
+
+        @Override
+        public Integer decode(Integer previous, ByteBuffer in){
+            return (int) ((previous == null ? 0 : previous) + unzigzag(readVarLong(in)));
+        }
+    }
+
+    final class StringPrefixCodec implements SkipListKeyCodec<String> {
+        static final StringPrefixCodec INSTANCE = new StringPrefixCodec();
+
+        @Override
+        public String id(){
+            return "string-prefix";
+        }
+
+        @Override
+        public int maxEncodedSize(String key){
+            // Two varints plus at most 3 UTF-8 bytes per char
+            return 10 + 10 + 3 * key.length();
+        }
+
+        @Override
+        public void encode(String previous, String key, ByteBuffer out){
+            int shared = 0;
+
+            if (previous != null){
+                int limit = Math.min(previous.length(), key.length());
+
+                while (shared < limit && previous.charAt(shared) == key.charAt(shared)){
+                    shared++;
+                }
+
+                // Don't cut a surrogate pair in half; its halves would be encoded as '?' on their own
+                if (shared > 0 && Character.isHighSurrogate(key.charAt(shared - 1))){
+                    shared--;
+                }
+            }
+
+            byte[] rest = key.substring(shared).getBytes(StandardCharsets.UTF_8);
+
+            writeVarLong(out, shared);
+            writeVarLong(out, rest.length);
+            out.put(rest);
+        }
+
+        @Override
+        public String decode(String previous, ByteBuffer in){
+            long shared = readVarLong(in);
+            long length = readVarLong(in);
+
+            if (shared > (previous == null ? 0 : previous.length()) || length > Integer.MAX_VALUE){
+                throw new IllegalArgumentException("Malformed string key");
+            }
+
+            if (length > in.remaining()){
+                throw new BufferUnderflowException();
+            }
+
+            byte[] rest = new byte[(int) length];
+            in.get(rest);
+
+            String suffix = new String(rest, StandardCharsets.UTF_8);
+
+            return shared == 0 ? suffix : previous.substring(0, (int) shared).concat(suffix);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how tall each new tower gets. Implementations don't need to be thread-safe;
+ * every skip list owns its own generator.
+ */
+public interface SkipListLevelGenerator {
+    double HALF = 0.5;
+    double QUARTER = 0.25;
+    double INVERSE_E = 1 / Math.E;
+
+    /** Height for the next tower, between 1 and maxLevel() */
+    int nextLevel();
+
+    /** Tallest tower this generator will ever hand out */
+    int maxLevel();
+
+    /**
+     * A generator drawing heights the same way, for a list split off the one owning this generator. By default it
+     * draws from this generator itself, so both lists share its state (and must not be used from different threads
+     * at once); implementations that can fork an independent stream, like GeometricLevelGenerator, should.
+     */
+    default SkipListLevelGenerator split(){
+        SkipListLevelGenerator parent = this;
+
+        return new SkipListLevelGenerator() {
+            @Override
+            public int nextLevel(){
+                return parent.nextLevel();
+            }
+
+            @Override
+            public int maxLevel(){
+                return parent.maxLevel();
+            }
+        };
+    }
+
+    /** Geometric heights with promotion probability p, capped at maxLevel, randomly seeded */
+    static SkipListLevelGenerator geometric(double probability, int maxLevel){
+        return new GeometricLevelGenerator(probability, maxLevel, ThreadLocalRandom.current().nextLong());
+    }
+
+    /** Geometric heights with promotion probability p, capped at maxLevel; the same seed gives the same layout */
+    static SkipListLevelGenerator geometric(double probability, int maxLevel, long seed){
+        return new GeometricLevelGenerator(probability, maxLevel, seed);
+    }
+
+    /** Geometric heights capped at log_{1/p}(expectedSize) + 1, randomly seeded */
+    static SkipListLevelGenerator forExpectedSize(long expectedSize, double probability){
+        return geometric(probability, maxLevelFor(expectedSize, probability));
+    }
+
+    /** Geometric heights capped at log_{1/p}(expectedSize) + 1; the same seed gives the same layout */
+    static SkipListLevelGenerator forExpectedSize(long expectedSize, double probability, long seed){
+        return geometric(probability, maxLevelFor(expectedSize, probability), seed);
+    }
+
+    /** Enough levels for a list of expectedSize keys to still search in O(log n) */
+    static int maxLevelFor(long expectedSize, double probability){
+        if (expectedSize <= 1){
+            return 1;
+        }
+
+        return (int) Math.ceil(Math.log(expectedSize) / Math.log(1 / probability)) + 1;
+    }
+}
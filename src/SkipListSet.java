@@ -1,43 +1,42 @@
-import javax.management.openmbean.OpenMBeanConstructorInfo;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Array;
 import java.util.*;
-
-public class SkipListSet<T> implements SortedSet<T> {
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public class SkipListSet<T> implements NavigableSet<T> {
+    /**
+     * A tower holding one key; it carries a forward pointer for every level the key reaches
+     * and a single back pointer along the bottom level.
+     */
     public static class SkipListSetItem<T> {
-        public SkipListSetItem<T> above;
-        public SkipListSetItem<T> below;
-        public SkipListSetItem<T> next;
-        public SkipListSetItem<T> prev;
+        public SkipListSetItem<T>[] next; // next[0] is the bottom level
+        public SkipListSetItem<T> prev; // Only kept on the bottom level
 
-        public boolean isHead;
-        public boolean isTail;
+        public int[] span; // Bottom level items each forward pointer skips over; only kept in indexable mode
 
         public T key;
 
         /** Used to create regular items */
-        public SkipListSetItem(T key){
+        @SuppressWarnings("unchecked")
+        public SkipListSetItem(T key, int levels){
             this.key = key;
 
-            this.isHead = false;
-            this.isTail = false;
-
-            this.above = null;
-            this.below = null;
-            this.next = null;
+            this.next = (SkipListSetItem<T>[]) new SkipListSetItem<?>[levels];
             this.prev = null;
         }
 
-        /** Used to create empty/sentinel item */
-        public SkipListSetItem(){
-            this.key = null;
-
-            this.isHead = false;
-            this.isTail = false;
+        /** Used to create the head sentinel; it gets regrown whenever the list outgrows it */
+        public SkipListSetItem(int levels){
+            this(null, levels);
+        }
 
-            this.above = null;
-            this.below = null;
-            this.next = null;
-            this.prev = null;
+        /** Amount of levels this item reaches */
+        public int levels(){
+            return next.length;
         }
     }
 
@@ -46,29 +45,31 @@ public class SkipListSet<T> implements SortedSet<T> {
         private SkipListSetItem<T> curr;
         private SkipListSetItem<T> last;
 
+        private final SubSet view; // Upper bound to stop at, null to run to the end
+
+        // Predecessors of last on every level, kept up to date while walking once the first remove() needed them
+        private SkipListSetItem<T>[] preds;
+        private int predsModCount = -1;
+
         public SkipListSetIterator(){
             // Start iterator at lowest level
-            curr = lowHead.next;
+            this(head.next[0]);
         }
 
         public SkipListSetIterator(SkipListSetItem<T> start){
-            // Start iterator at custom item
-            curr = start;
+            // Start iterator at custom item; towers are always entered on the bottom level
+            this(start, null);
+        }
 
-            // Ensure we're at the lowest level!
-            while (curr.below != null){
-                curr = curr.below;
-            }
+        SkipListSetIterator(SkipListSetItem<T> start, SubSet view){
+            this.curr = start;
+            this.view = view;
         }
 
         @Override
         public boolean hasNext() {
-            // Iterator stops once we reach the tail
-            if (curr.isTail){
-                return false;
-            }
-
-            return true;
+            // Iterator stops once we fall off the end of the bottom level, or leave the view
+            return curr != null && (view == null || !view.tooHigh(curr.key));
         }
 
         @Override
@@ -78,6 +79,13 @@ public class SkipListSet<T> implements SortedSet<T> {
                 throw new NoSuchElementException();
             }
 
+            // The item we're walking past becomes the predecessor of the next one on every level it reaches
+            if (preds != null && last != null){
+                for (int level = 0; level < last.levels(); level++){
+                    preds[level] = last;
+                }
+            }
+
             // Keep track of last node before moving on
             last = curr;
 
@@ -85,7 +93,7 @@ public class SkipListSet<T> implements SortedSet<T> {
             T currentKey = curr.key;
 
             // Move on
-            curr = curr.next;
+            curr = curr.next[0];
 
             // Return collected current key
             return currentKey;
@@ -98,141 +106,369 @@ public class SkipListSet<T> implements SortedSet<T> {
                 throw new IllegalStateException("Have not iterated over anything yet!");
             }
 
+            // Search once for the predecessors; after that they're maintained by next(), unless someone else changed the list
+            if (preds == null || predsModCount != modCount || preds.length != head.levels()){
+                preds = newItemArray(head.levels());
+                findPredecessors(last.key, preds, false);
+            }
+
+            // Unlink the tower in place, no search needed
+            removeReferencesToItem(preds, last);
+            recycle(last);
+            size--;
+
+            predsModCount = modCount;
+            last = null;
+        }
+    }
+
+    /** Iterator walking the bottom level backwards through the prev pointers */
+    public class DescendingSkipListSetIterator implements Iterator<T> {
+        private SkipListSetItem<T> curr;
+        private SkipListSetItem<T> last;
+
+        private final SubSet view; // Lower bound to stop at, null to run to the start
+
+        DescendingSkipListSetIterator(SkipListSetItem<T> start, SubSet view){
+            // Null start (or head, in an empty list) means nothing to iterate over
+            this.curr = start == head ? null : start;
+            this.view = view;
+        }
+
+        @Override
+        public boolean hasNext(){
+            // Iterator stops once we walk back into head, or leave the view
+            return curr != null && curr != head && (view == null || !view.tooLow(curr.key));
+        }
+
+        @Override
+        public T next(){
+            // If no next, we can't keep going
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            last = curr;
+            curr = curr.prev;
+
+            return last.key;
+        }
+
+        @Override
+        public void remove(){
+            // This method gets rid of the last thing iterated over; there must be one!
+            if (last == null){
+                throw new IllegalStateException("Have not iterated over anything yet!");
+            }
+
             SkipListSet.this.remove(last.key);
+            last = null;
         }
     }
 
-    private SkipListSetItem<T> topHead;
-    private SkipListSetItem<T> topTail;
+    /**
+     * Spliterator over a run [first, fence) of the bottom level. Splitting uses the upper levels as a sample of the
+     * keys: it walks the highest level that still has towers strictly inside the run and cuts at the middle one, so
+     * every split is O(log n) and lands close to the median. The head counts as an empty first element.
+     */
+    public class SkipListSetSpliterator implements Spliterator<T> {
+        private SkipListSetItem<T> first; // Next item to hand out, or head before anything was
+        private final SkipListSetItem<T> fence; // First item past the run, null for the end of the list
+
+        private int level; // Highest level worth looking for split points on
+        private long estimate; // Exact until the first split, halved on every split after
+        private boolean exact;
+
+        SkipListSetSpliterator(SkipListSetItem<T> first, SkipListSetItem<T> fence, int level, long estimate, boolean exact){
+            this.first = first;
+            this.fence = fence;
+            this.level = level;
+            this.estimate = estimate;
+            this.exact = exact;
+        }
+
+        @Override
+        public Spliterator<T> trySplit(){
+            // Head stays put here: it's the one tower that reaches every level
+            if (first == null || first == fence){
+                return null;
+            }
 
-    private SkipListSetItem<T> lowHead;
-    private SkipListSetItem<T> lowTail;
+            // first may be shorter than the towers the run started from
+            level = Math.min(level, first.levels() - 1);
 
-    private int height; // Height of list
-    private int size; // Amount of unique elements in list
+            for (; level >= 0; level--){
+                // Count the towers on this level strictly inside the run
+                int towers = 0;
+                for (SkipListSetItem<T> curr = first.next[level]; curr != null && curr != fence; curr = curr.next[level]){
+                    towers++;
+                }
 
-    public Random random = new Random();
+                // Too few towers to cut near the middle; the next level down samples the run more finely
+                if (towers < SPLIT_SAMPLE && level > 0){
+                    continue;
+                }
 
-    private final Comparator<? super T> comparator;
+                if (towers == 0){
+                    return null;
+                }
 
-    public SkipListSet(){
-        size = 0;
-        height = 0;
+                SkipListSetItem<T> middle = first.next[level];
+                for (int i = 1; i < (towers + 1) / 2; i++){
+                    middle = middle.next[level];
+                }
 
-        // Assign the comparator
-        this.comparator = null;
+                // Hand out the front half, keep the back half; both ends still reach this level
+                long half = estimate >>> 1;
+                SkipListSetSpliterator prefix = new SkipListSetSpliterator(first, middle, level, half, false);
+
+                first = middle;
+                estimate -= half;
+                exact = false;
+
+                return prefix;
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action){
+            Objects.requireNonNull(action);
+
+            if (first == head){
+                first = head.next[0];
+            }
+
+            if (first == null || first == fence){
+                return false;
+            }
+
+            T key = first.key;
+            first = first.next[0];
+
+            action.accept(key);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action){
+            Objects.requireNonNull(action);
 
-        // Initialize sentinel items
-        topHead = new SkipListSetItem<>();
-        topTail = new SkipListSetItem<>();
+            SkipListSetItem<T> curr = first == head ? head.next[0] : first;
+            first = fence;
 
-        // Mark them as head and tail
-        topHead.isHead = true;
-        topTail.isTail = true;
+            for (; curr != null && curr != fence; curr = curr.next[0]){
+                action.accept(curr.key);
+            }
+        }
+
+        @Override
+        public long estimateSize(){
+            return estimate;
+        }
 
-        // Make the list wrap around (?)
-        topHead.next = topTail;
-        topTail.prev = topHead;
+        @Override
+        public int characteristics(){
+            return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL
+                    | (exact ? Spliterator.SIZED : 0);
+        }
 
-        // Because it's our first level, the top head and tail are same
-        lowHead = topHead;
-        lowTail = topTail;
+        @Override
+        public Comparator<? super T> getComparator(){
+            return comparator;
+        }
     }
 
-    public SkipListSet(Comparator<? super T> comparator){
-        // Assign the comparator
-        this.comparator = comparator;
+    /**
+     * Position in the skip list that keeps its own finger: every seek() starts from the predecessors the previous
+     * one left behind, so seeking to nearby keys costs O(log d) in their distance d. Structural changes made
+     * through anything other than this cursor make the next seek() start from the top again.
+     *
+     * A cursor is meant to be kept and reused across queries: once created, seeking and stepping allocate nothing,
+     * so a steady-state scan loop produces no garbage (apart from whatever the keys themselves cost).
+     */
+    public class Cursor {
+        private SkipListSetItem<T>[] preds; // Predecessors of the last key seeked to
+        private int predsModCount = -1; // modCount at the time preds[] was filled
+
+        private SkipListSetItem<T> curr; // Item the cursor is on, null if it's off the end
+
+        Cursor(){
+            this.preds = newItemArray(head.levels());
+        }
 
-        // Do everything else the exact same
-        size = 0;
-        height = 0;
+        /** Move to the first element >= key; returns whether that element is key itself */
+        public boolean seek(T key){
+            // The list grew taller (or was cleared) since the last seek, so the old finger doesn't fit anymore
+            if (preds.length != head.levels()){
+                preds = newItemArray(head.levels());
+                predsModCount = -1;
+            }
 
-        topHead = new SkipListSetItem<>();
-        topTail = new SkipListSetItem<>();
+            findPredecessors(key, preds, predsModCount == modCount);
+            predsModCount = modCount;
 
-        topHead.isHead = true;
-        topTail.isTail = true;
+            curr = preds[0].next[0];
 
-        topHead.next = topTail;
-        topTail.prev = topHead;
+            return curr != null && compare(curr.key, key) == 0;
+        }
+
+        /** Move to the first element; returns whether there is one */
+        public boolean seekFirst(){
+            curr = head.next[0];
+
+            return curr != null;
+        }
+
+        /** Move to the last element; returns whether there is one */
+        public boolean seekLast(){
+            curr = tail == head ? null : tail;
+
+            return curr != null;
+        }
+
+        /** Take the cursor off the list (valid() turns false); the finger is kept for the next seek() */
+        public void reset(){
+            curr = null;
+        }
+
+        /** Whether the cursor is on an element */
+        public boolean valid(){
+            return curr != null;
+        }
+
+        /** Element the cursor is on */
+        public T key(){
+            if (curr == null){
+                throw new NoSuchElementException();
+            }
+
+            return curr.key;
+        }
 
-        lowHead = topHead;
-        lowTail = topTail;
+        /** Move to the next element; the cursor becomes invalid after the last one */
+        public void next(){
+            if (curr == null){
+                throw new NoSuchElementException();
+            }
+
+            curr = curr.next[0];
+        }
+
+        /** Move to the previous element; the cursor becomes invalid before the first one */
+        public void prev(){
+            if (curr == null){
+                throw new NoSuchElementException();
+            }
+
+            curr = curr.prev == head ? null : curr.prev;
+        }
     }
 
-    /** AUX: Compare existing list elements */
-    private int compare(SkipListSetItem<T> e1, SkipListSetItem<T> e2){
-        /*
+    private static final int INITIAL_LEVELS = 4;
+    private static final int SPLIT_SAMPLE = 16; // Towers a level needs inside a run before the spliterator cuts on it
 
-        (This assumes both comparison items could be sentinels...)
+    private SkipListSetItem<T> head; // Sentinel tower; its next[] is the entry point of every level
+    private SkipListSetItem<T> tail; // Last item on the bottom level, or head if the list is empty
 
-        We might need to reach the end, but we can't compare with it...
+    private SkipListSetItem<T>[] update; // Scratch predecessors, one per level, reused between calls
+    private int[] rank; // Scratch positions of update[] items (head is 0), only filled in indexable mode
 
-        [h] -> [3] -> [t]
+    private boolean indexable; // Whether forward pointers keep their spans up to date
 
-        h is less than t
-        t is greater than anything
+    private int modCount; // Structural modifications so far
+    private boolean fingerSearch; // Whether searches start from the predecessors the previous one left in update[]
+    private int fingerModCount = -1; // modCount at the time update[] last held a full set of predecessors
 
-        -1 if first value < second
-         1 if first value > second
-         0 if equal
+    private int height; // Height of list
+    private int size; // Amount of unique elements in list
+
+    private final SkipListLevelGenerator levelGenerator; // Decides how tall new towers get
 
-        e1 = first
-        e2 = second
+    private SkipListSetCounters counters; // Operation and search counters; null (and never touched) while stats are off
 
-        if both are head or tail
-            return 0
+    private SkipListSetItem<T>[] nodePool; // Removed towers waiting for reuse, one free list per height chained through next[0]
+    private int nodePoolCapacity; // Towers the pool may hold; 0 turns pooling off
+    private int nodePoolSize;
+    private long nodePoolHits;
+    private long nodePoolMisses;
 
-        if e1 is head, e2 is any
-            return -1
+    private final Comparator<? super T> comparator;
 
-        [h]->[3]
+    public SkipListSet(){
+        // Assign the comparator
+        this.comparator = null;
+        this.levelGenerator = defaultLevelGenerator();
 
-        if e1 is tail, e2 is any (if e1 is tail, next can only be head)
-            return 1
+        // Initialize sentinel and counters
+        clear();
+    }
 
-        [t]->[h]
+    public SkipListSet(Comparator<? super T> comparator){
+        // Assign the comparator
+        this.comparator = comparator;
+        this.levelGenerator = defaultLevelGenerator();
 
-        And flip...
+        // Do everything else the exact same
+        clear();
+    }
 
-        if e1 is any, e2 is head (head can only be really pointed to by tail)
-            return 1
+    /** Use a specific level generator, e.g. p = 1/4 for fewer pointers per key, or a seeded one for reproducible layouts */
+    public SkipListSet(Comparator<? super T> comparator, SkipListLevelGenerator levelGenerator){
+        this.comparator = comparator;
+        this.levelGenerator = levelGenerator;
 
-        [t]->[h]
+        clear();
+    }
 
-        if e1 is any, e2 is tail
-            return -1
+    /** Copy a sorted set, keeping its ordering; built in one left-to-right pass */
+    public SkipListSet(SortedSet<T> sortedSet){
+        this.comparator = sortedSet.comparator();
+        this.levelGenerator = defaultLevelGenerator();
 
-        [3]->[t]
+        clear();
+        addAll(sortedSet.iterator());
+    }
 
-        Any other comparisons don't involve sentinels and can therefore be done by key
+    /** AUX: Coin flips (p = 1/2), capped at 32 levels, which covers any int-sized list */
+    private static SkipListLevelGenerator defaultLevelGenerator(){
+        return SkipListLevelGenerator.geometric(SkipListLevelGenerator.HALF, 32);
+    }
 
-        */
+    /** Build a skip list from keys that come in ascending natural order, in one left-to-right pass */
+    public static <T> SkipListSet<T> fromSorted(Iterator<? extends T> sortedKeys){
+        return fromSorted(sortedKeys, null);
+    }
 
-        if (e1.isHead && e2.isHead){
-            return 0;
-        } else if (e1.isTail && e2.isTail){
-            return 0;
-        } else if (e1.isHead){
-            return -1;
-        } else if (e1.isTail){
-            return 1;
-        } else if (e2.isHead){
-            return 1;
-        } else if (e2.isTail){
-            return -1;
-        } else {
-            T e1Key = e1.key;
-            T e2Key = e2.key;
+    /**
+     * Build a skip list from keys that come in ascending comparator order, in one left-to-right pass.
+     * Out-of-order keys are still accepted; they just cost a regular insert each.
+     */
+    public static <T> SkipListSet<T> fromSorted(Iterator<? extends T> sortedKeys, Comparator<? super T> comparator){
+        SkipListSet<T> skipList = new SkipListSet<>(comparator);
+        skipList.addAll(sortedKeys);
 
-            return compare(e1Key, e2Key);
-        }
+        return skipList;
     }
 
+    /** AUX: Compare a list item against a key */
     private int compare(SkipListSetItem<T> e1, T e2){
-        if (e1.isHead){
+        /*
+
+        The head is less than anything, and falling off the end of a level (null) is greater than anything
+
+        -1 if first value < second
+         1 if first value > second
+         0 if equal
+
+        Any other comparisons don't involve sentinels and can therefore be done by key
+
+        */
+
+        if (e1 == head){
             return -1;
-        } else if (e1.isTail){
+        } else if (e1 == null){
             return 1;
         } else {
             T e1Key = e1.key;
@@ -242,18 +478,24 @@ public class SkipListSet<T> implements SortedSet<T> {
     }
 
     private int compare(T e1, T e2){
-        if (this.comparator == null){
+        return compare(this.comparator, e1, e2);
+    }
+
+    /** AUX: Compare two keys by comparator if there is one, else by natural ordering; shared with sibling sets */
+    @SuppressWarnings("unchecked")
+    static <T> int compare(Comparator<? super T> comparator, T e1, T e2){
+        if (comparator == null){
             // Cast should be OK, our skip list uses comparable values
             Comparable<? super T> e1KeyAsComparable = (Comparable<? super T>)e1;
             return e1KeyAsComparable.compareTo(e2);
         } else {
-            return this.comparator.compare(e1, e2);
+            return comparator.compare(e1, e2);
         }
     }
 
-    /** AUX: Check if node is sentinel (head or tail) */
-    private boolean isSentinel(SkipListSetItem<T> item){
-        return item.isHead || item.isTail;
+    /** Returns the level generator */
+    public SkipListLevelGenerator levelGenerator(){
+        return levelGenerator;
     }
 
     /** Returns the comparator */
@@ -267,6 +509,17 @@ public class SkipListSet<T> implements SortedSet<T> {
         return new SkipListSetIterator();
     }
 
+    /** Return a spliterator that splits on the upper levels, so parallel streams over the set scale */
+    @Override
+    public Spliterator<T> spliterator(){
+        return new SkipListSetSpliterator(head, null, height - 1, size, true);
+    }
+
+    /** Return a new cursor with its own finger, see Cursor */
+    public Cursor cursor(){
+        return new Cursor();
+    }
+
     /** Add to skip list */
     @Override
     public boolean add(T key){
@@ -275,404 +528,1578 @@ public class SkipListSet<T> implements SortedSet<T> {
             return false;
         }
 
-        SkipListSetItem<T> insertPos = search(key);
-        SkipListSetItem<T> q;
+        if (counters != null){
+            counters.adds++;
+        }
 
-        int heightOfNewKey = -1;
+        findPredecessors(key);
 
         // Don't modify the set on a duplicate key
-        if (compare(insertPos, key) == 0){
+        if (compare(update[0].next[0], key) == 0){
             return false;
         }
 
-        do {
-            heightOfNewKey++;
-
-            increaseHeightIfTaller(heightOfNewKey);
-
-            q = insertPos;
+        int heightOfNewKey = randomLevel();
 
-            while (insertPos.above == null){
-                insertPos = insertPos.prev;
-            }
+        increaseHeightIfTaller(heightOfNewKey);
 
-            insertPos = insertPos.above;
+        insertAfter(update, newItem(key, heightOfNewKey));
 
-            insertAfterAbove(insertPos, q, key);
-        } while (random.nextBoolean());
+        // update[] are still the key's predecessors, so they're still a valid finger
+        fingerModCount = modCount;
 
         // Set was modified if we reach this point
         size++;
         return true;
     }
 
-    /** AUX: Retrieves skip list item with specific key */
-    private SkipListSetItem<T> search(T key){
-        SkipListSetItem<T> curr = topHead;
-
-        // While we aren't at the bottom level...
-        while (curr.below != null){
-            curr = curr.below;
+    /** Running totals behind stats(); only allocated while stats are on */
+    static final class SkipListSetCounters {
+        long adds;
+        long removes;
+        long contains;
 
-            // Go across while the next key is greater and we're not about to wrap around
-            while (!isSentinel(curr.next) && compare(key, curr.next.key) >= 0){
-                curr = curr.next;
-            }
+        long searches;
+        long comparisons;
+        long hops;
 
+        void recordSearch(int comparisons, int hops){
+            this.searches++;
+            this.comparisons += comparisons;
+            this.hops += hops;
         }
-
-        // Give back that target
-        return curr;
     }
 
-    /** AUX: Add empty level if passed one exceeds the current height */
-    private void increaseHeightIfTaller(int level){
-        if (level >= height){
-            height++;
-            addEmptyLevel();
+    /**
+     * Turn statistics on or off. While on, add()/remove()/contains() calls and the comparisons and hops of every
+     * descent are counted; while off, nothing is counted and the counters are dropped. Turning them on starts from 0.
+     */
+    public void setStatsEnabled(boolean enabled){
+        if (enabled == (counters != null)){
+            return;
         }
-    }
 
-    /** AUX: Perform necessary re-links for insertion */
-    private void insertAfterAbove(SkipListSetItem<T> position, SkipListSetItem<T> q, T key){
-        SkipListSetItem<T> newItem = new SkipListSetItem<>(key);
-        SkipListSetItem<T> itemBeforeNew = position.below.below;
-
-        setBeforeAndAfterReferences(q, newItem);
-        setAboveAndBelowReferences(position, key, newItem, itemBeforeNew);
+        counters = enabled ? new SkipListSetCounters() : null;
     }
 
-    /** AUX: Redoes horizontal links for insertion */
-    private void setBeforeAndAfterReferences(SkipListSetItem<T> q, SkipListSetItem<T> newItem){
-        newItem.next = q.next;
-        newItem.prev = q;
+    /** Whether statistics are being counted, see setStatsEnabled() */
+    public boolean isStatsEnabled(){
+        return counters != null;
+    }
 
-        q.next.prev = newItem;
-        q.next = newItem;
+    /**
+     * Snapshot of the counters (all 0 while stats are off) plus size and height. Takes constant time, so it is fine to
+     * poll; the tower shape is left out, see stats(boolean).
+     */
+    public SkipListSetStats stats(){
+        return stats(false);
     }
 
-    /** AUX: Redoes vertical links for insertion */
-    private void setAboveAndBelowReferences(SkipListSetItem<T> position, T key, SkipListSetItem<T> newItem, SkipListSetItem<T> itemBeforeNew){
-        if (itemBeforeNew != null){
-            while (true){
-                if (compare(itemBeforeNew.next, key) != 0){
-                    itemBeforeNew = itemBeforeNew.next;
-                } else {
-                    break;
-                }
+    /**
+     * Like stats(), plus the level histogram and tower heights if withShape. Those take one pass over the bottom level,
+     * so ask for them when looking into how the list is built, not on every metrics scrape.
+     */
+    public SkipListSetStats stats(boolean withShape){
+        long[] levelHistogram = new long[withShape ? height : 0];
+        long towerLevels = 0;
+        int maxTowerHeight = 0;
+
+        for (SkipListSetItem<T> curr = withShape ? head.next[0] : null; curr != null; curr = curr.next[0]){
+            int levels = curr.levels();
+
+            // Towers may be taller than height was when a level got emptied out
+            if (levels > levelHistogram.length){
+                levelHistogram = Arrays.copyOf(levelHistogram, levels);
             }
 
-            newItem.below = itemBeforeNew.next;
-            itemBeforeNew.next.above = newItem;
-        }
-
-        if (position != null){
-            if (compare(position.next, key) == 0){
-                newItem.above = position.next;
+            for (int level = 0; level < levels; level++){
+                levelHistogram[level]++;
             }
+
+            towerLevels += levels;
+            maxTowerHeight = Math.max(maxTowerHeight, levels);
         }
+
+        SkipListSetCounters c = counters == null ? new SkipListSetCounters() : counters;
+
+        return new SkipListSetStats(size, height, levelHistogram, maxTowerHeight, size == 0 ? 0 : (double) towerLevels / size,
+                c.adds, c.removes, c.contains, c.searches, c.comparisons, c.hops);
     }
 
-    /** AUX: Redoes links so that we have a new empty level at the top */
-    private void addEmptyLevel(){
-        SkipListSetItem<T> newHead = new SkipListSetItem<>();
-        SkipListSetItem<T> newTail = new SkipListSetItem<>();
+    /**
+     * Register this set with the platform MBean server under the given name (e.g. "app:type=SkipListSet,name=orders"),
+     * exposing stats() as a SkipListSetMXBean; the Stats attribute stays cheap to poll, the shape is an operation. The set isn't thread-safe, so values read over JMX while another thread
+     * is changing it are best effort.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+
+        SkipListSetMXBean bean = new SkipListSetMXBean(){
+            @Override
+            public SkipListSetStats getStats(){
+                return stats();
+            }
 
-        newHead.isHead = true;
-        newTail.isTail = true;
+            @Override
+            public SkipListSetStats statsWithShape(){
+                return stats(true);
+            }
 
-        // New head's next is new tail; old head is below it
-        newHead.next = newTail;
-        newHead.below = topHead;
+            @Override
+            public boolean isStatsEnabled(){
+                return SkipListSet.this.isStatsEnabled();
+            }
 
-        // New tail's previous is the new head; its below is the old tail
-        newTail.prev = newHead;
-        newTail.below = topTail;
+            @Override
+            public void setStatsEnabled(boolean enabled){
+                SkipListSet.this.setStatsEnabled(enabled);
+            }
 
-        // Make references persistent for head and tail as well
-        topHead.above = newHead;
-        topTail.above = newTail;
+            @Override
+            public void resetStats(){
+                if (counters != null){
+                    counters = new SkipListSetCounters();
+                }
+            }
+        };
 
-        // Update current head and tail
-        topHead = newHead;
-        topTail = newTail;
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, SkipListSetMXBean.class, true), objectName);
+        return objectName;
     }
 
-    /** Remove from skip list */
-    @Override
-    public boolean remove(Object o){
-        // Cast should be OK
-        T key = (T)o;
+    /**
+     * Turn node pooling on with room for capacity towers, or off with 0. While on, towers unlinked by remove(),
+     * pollFirst()/pollLast(), removeIf() and iterator removal are kept (up to capacity) and reused by later inserts
+     * of the same height, so a workload that keeps its size steady stops allocating nodes. Iterators, cursors and
+     * spliterators must not be left sitting on a removed element then, since its tower may already hold another key.
+     */
+    public void setNodePoolCapacity(int capacity){
+        if (capacity < 0){
+            throw new IllegalArgumentException("Capacity can't be negative");
+        }
 
-        SkipListSetItem<T> itemToBeRemoved = search(key);
+        nodePoolCapacity = capacity;
 
-        // Can't remove key that doesn't exist!
-        if (compare(itemToBeRemoved, key) != 0){
-            return false;
+        // Drop whatever no longer fits
+        while (nodePoolSize > capacity){
+            for (int levels = nodePool.length - 1; levels > 0 && nodePoolSize > capacity; levels--){
+                if (nodePool[levels] != null){
+                    nodePool[levels] = nodePool[levels].next[0];
+                    nodePoolSize--;
+                }
+            }
         }
+    }
 
-        removeReferencesToItem(itemToBeRemoved);
+    /** Towers the node pool may hold, see setNodePoolCapacity() */
+    public int nodePoolCapacity(){
+        return nodePoolCapacity;
+    }
 
-        while (true){
-            removeReferencesToItem(itemToBeRemoved);
+    /** Towers currently waiting in the node pool */
+    public int nodePoolSize(){
+        return nodePoolSize;
+    }
 
-            if (itemToBeRemoved.above != null){
-                itemToBeRemoved = itemToBeRemoved.above;
-            } else {
-                break;
-            }
-        }
+    /** Inserts that reused a pooled tower */
+    public long nodePoolHits(){
+        return nodePoolHits;
+    }
 
-        // Set was modified at this point
-        size--;
-        return true;
+    /** Inserts that had to allocate a tower while pooling was on */
+    public long nodePoolMisses(){
+        return nodePoolMisses;
     }
 
-    /** AUX: Remove links to a target removal item from the skip list */
-    private void removeReferencesToItem(SkipListSetItem<T> itemToBeRemoved){
-        SkipListSetItem<T> afterItemToBeRemoved = itemToBeRemoved.next;
-        SkipListSetItem<T> beforeItemToBeRemoved = itemToBeRemoved.prev;
+    /** AUX: A tower for key with the given height, taken from the node pool when it has one that tall */
+    private SkipListSetItem<T> newItem(T key, int levels){
+        if (nodePoolCapacity == 0){
+            return new SkipListSetItem<>(key, levels);
+        }
+
+        SkipListSetItem<T> item = nodePool != null && levels < nodePool.length ? nodePool[levels] : null;
+
+        if (item == null){
+            nodePoolMisses++;
+            return new SkipListSetItem<>(key, levels);
+        }
+
+        nodePool[levels] = item.next[0];
+        nodePoolSize--;
+        nodePoolHits++;
 
-        beforeItemToBeRemoved.next = afterItemToBeRemoved;
-        afterItemToBeRemoved.prev = beforeItemToBeRemoved;
+        item.next[0] = null;
+        item.key = key;
+
+        return item;
     }
 
-    /** Return subset of skip list, including start and excluding end */
-    @Override
-    public SkipListSet<T> subSet(T fromElement, T toElement){
-        // Empty set
-        if (this.isEmpty()){
-            return new SkipListSet<>();
+    /** AUX: Hand a tower that was just unlinked to the node pool, if pooling is on and there's room */
+    private void recycle(SkipListSetItem<T> item){
+        if (nodePoolSize >= nodePoolCapacity){
+            return;
         }
 
-        // Destination element is smaller than starting element, which is impossible in sorted set
-        // Give back empty set
-        if (compare(fromElement, toElement) > 0){
-            return new SkipListSet<>();
+        if (nodePool == null || item.levels() >= nodePool.length){
+            nodePool = nodePool == null ? newItemArray(item.levels() + 1) : Arrays.copyOf(nodePool, item.levels() + 1);
         }
 
-        /*
+        // Don't keep the rest of the list (or the old key) reachable from the pool
+        Arrays.fill(item.next, null);
+        item.prev = null;
+        item.key = null;
 
-        If fromElement is null but toElement isn't, we can do tailSet
-        If fromElement is not null but toElement is, we can do headSet
-        If both of them are null, return empty set
-        Otherwise, return subset!
+        item.next[0] = nodePool[item.levels()];
+        nodePool[item.levels()] = item;
+        nodePoolSize++;
+    }
 
-        */
+    /** AUX: Draw the height of a new tower */
+    private int randomLevel(){
+        return levelGenerator.nextLevel();
+    }
 
-        if (fromElement == null && toElement != null){
-            return tailSet(toElement);
-        } else if (fromElement != null && toElement == null){
-            return headSet(fromElement);
-        } else {
-            // Go to start item
-            SkipListSetItem<T> startItem = search(fromElement);
+    /** AUX: Retrieves the bottom level item with the greatest key <= the given one (may be head) */
+    private SkipListSetItem<T> search(T key){
+        return search(key, true);
+    }
 
-            // If it doesn't exist, return empty set as well
-            if (compare(startItem, fromElement) != 0){
-                return new SkipListSet<>();
-            }
+    /** AUX: Retrieves the bottom level item with the greatest key <= the given one, or < if not inclusive (may be head) */
+    private SkipListSetItem<T> search(T key, boolean inclusive){
+        SkipListSetItem<T> curr = head;
 
-            SkipListSet<T> subSet = new SkipListSet<>();
+        // Going across stops at a key equal to ours only when it's excluded
+        int stopAt = inclusive ? -1 : 0;
 
-            // Place iterator at start item
-            SkipListSetIterator startItemIterator = new SkipListSetIterator(startItem);
-            while (startItemIterator.hasNext()){
-                T currentKey = startItemIterator.next();
+        // Loop-invariant, so with stats off the JIT keeps the loop below free of counting
+        boolean counting = counters != null;
+        int hops = 0;
+        int stops = 0;
 
-                // Continue iterating + adding until toElement is reached
-                if (currentKey == toElement){
-                    break;
-                } else {
-                    subSet.add(currentKey);
+        // Drop one level at a time, going across while the next key isn't past ours
+        for (int level = height - 1; level >= 0; level--){
+            SkipListSetItem<T> next = curr.next[level];
+
+            while (next != null && compare(key, next.key) > stopAt){
+                if (counting){
+                    hops++;
                 }
+
+                curr = next;
+                next = curr.next[level];
             }
 
-            // Give back subset
-            return subSet;
+            if (counting && next != null){
+                stops++;
+            }
         }
-    }
 
-    /** Return subset including start element and up to the end */
-    @Override
-    public SkipListSet<T> headSet(T fromElement){
-        // Empty set
-        if (this.isEmpty()){
-            return new SkipListSet<>();
+        if (counting){
+            counters.recordSearch(hops + stops, hops);
         }
 
-        // Null start element
-        if (fromElement == null){
-            return new SkipListSet<>();
-        }
+        // Give back that target
+        return curr;
+    }
 
-        // Go to start item
-        SkipListSetItem<T> startItem = search(fromElement);
+    /** AUX: Fills update[] with the last item strictly before key on every level */
+    private void findPredecessors(T key){
+        // In finger mode update[] still holds the previous call's predecessors, as long as nothing else changed the list
+        boolean fromFinger = fingerSearch && !indexable && fingerModCount == modCount;
 
-        // If it doesn't exist, return empty set as well
-        if (compare(startItem, fromElement) != 0){
-            return new SkipListSet<>();
-        }
+        findPredecessors(key, update, fromFinger);
+        fingerModCount = modCount;
+    }
 
-        // Use an iterator starting at the found starting element to fill in the new head set
-        SkipListSet<T> headSet = new SkipListSet<>();
+    /** AUX: Fills update[] (and rank[]) with the last item before key on every level, or up to and including it if inclusive */
+    private void findPredecessors(T key, boolean inclusive){
+        findPredecessors(key, update, false);
 
-        SkipListSetIterator startItemIterator = new SkipListSetIterator(startItem);
-        while (startItemIterator.hasNext()){
-            headSet.add(startItemIterator.next());
-        }
+        SkipListSetItem<T> match = update[0].next[0];
 
-        return headSet;
-    }
+        // The key itself takes over as predecessor on every level it reaches
+        if (inclusive && compare(match, key) == 0){
+            int position = rank[0] + 1;
 
-    /** Return subset up to and excluding an element */
-    @Override
-    public SkipListSet<T> tailSet(T toElement){
-        // Empty set
-        if (this.isEmpty()){
-            return new SkipListSet<>();
+            for (int level = 0; level < match.levels(); level++){
+                update[level] = match;
+                rank[level] = position;
+            }
         }
+    }
 
-        // Start new set and add to it until we hit the destination element
-        // If it isn't found, we'll just end up with a copy of the set
-        SkipListSet<T> tailSet = new SkipListSet<>();
+    /**
+     * AUX: Fills preds[] with the last item strictly before key on every level. With fromFinger, preds[] must still
+     * hold the predecessors of some earlier key; the search then climbs from the bottom only until that level's
+     * predecessor also brackets the new key, and descends from there, so it costs O(log d) in the distance d
+     * between the two keys instead of a descent from the top.
+     */
+    private void findPredecessors(T key, SkipListSetItem<T>[] preds, boolean fromFinger){
+        SkipListSetItem<T> curr = head;
+        int startLevel = height - 1;
+
+        if (fromFinger){
+            startLevel = 0;
+
+            // Once a level brackets the key, every level above it does too, so those predecessors stay as they are
+            while (startLevel < height - 1 && !brackets(preds[startLevel], startLevel, key)){
+                startLevel++;
+            }
 
-        SkipListSetIterator toItemIterator = new SkipListSetIterator();
-        while (toItemIterator.hasNext()){
-            T currentKey = toItemIterator.next();
+            curr = preds[startLevel];
 
-            // Stop adding items when reached destination element, excluding it
-            // This also means we'll return the full set if toElement is null
-            if (currentKey == toElement){
-                break;
-            } else {
-                tailSet.add(currentKey);
+            // Even the top level's predecessor is past the key; nothing to reuse
+            if (curr != head && compare(curr.key, key) >= 0){
+                curr = head;
             }
         }
 
-        return tailSet;
-    }
+        // Positions are only tracked for the set's own update[]
+        boolean trackRank = indexable && preds == update;
 
-    /** Return first element in skip list */
+        // Loop-invariant, so with stats off the JIT keeps the loop below free of counting
+        boolean counting = counters != null;
+        int hops = 0;
+        int stops = 0;
+
+        for (int level = startLevel; level >= 0; level--){
+            SkipListSetItem<T> next = curr.next[level];
+
+            int position = trackRank && level < height - 1 ? rank[level + 1] : 0;
+
+            while (next != null && compare(next.key, key) < 0){
+                if (trackRank){
+                    position += curr.span[level];
+                }
+
+                if (counting){
+                    hops++;
+                }
+
+                curr = next;
+                next = curr.next[level];
+            }
+
+            // The comparison that ended this level (none if we ran off its end)
+            if (counting && next != null){
+                stops++;
+            }
+
+            preds[level] = curr;
+
+            if (trackRank){
+                rank[level] = position;
+            }
+        }
+
+        if (counting){
+            counters.recordSearch(hops + stops, hops);
+        }
+    }
+
+    /** AUX: Whether item is the last one strictly before key on the given level */
+    private boolean brackets(SkipListSetItem<T> item, int level, T key){
+        if (item != head && compare(item.key, key) >= 0){
+            return false;
+        }
+
+        SkipListSetItem<T> next = item.next[level];
+
+        return next == null || compare(next.key, key) >= 0;
+    }
+
+    /**
+     * Turn finger search on or off. While on, add(), remove() and contains() start from the predecessors the previous
+     * call left behind instead of from the top, which makes runs of nearby keys (e.g. timestamps arriving almost in
+     * order) cost O(log d) in the distance d between them. Ignored in indexable mode, which needs full descents.
+     */
+    public void setFingerSearch(boolean fingerSearch){
+        this.fingerSearch = fingerSearch;
+    }
+
+    /** Whether finger search is on, see setFingerSearch() */
+    public boolean isFingerSearch(){
+        return fingerSearch;
+    }
+
+    /** AUX: Grow the list if passed height exceeds the current one; new levels start out at the head */
+    private void increaseHeightIfTaller(int levels){
+        if (levels <= height){
+            return;
+        }
+
+        if (levels > head.levels()){
+            growHead(Math.max(levels, head.levels() * 2));
+        }
+
+        for (int level = height; level < levels; level++){
+            update[level] = head;
+
+            // A fresh level's head pointer skips the whole list
+            if (indexable){
+                head.span[level] = size;
+                rank[level] = 0;
+            }
+        }
+
+        height = levels;
+    }
+
+    @SuppressWarnings("unchecked")
+    private SkipListSetItem<T>[] newItemArray(int levels){
+        return (SkipListSetItem<T>[]) new SkipListSetItem<?>[levels];
+    }
+
+    /** AUX: Reallocate the head tower (and the scratch array, keeping what's in it) so more levels fit */
+    @SuppressWarnings("unchecked")
+    private void growHead(int levels){
+        head.next = Arrays.copyOf(head.next, levels);
+        update = update == null ? newItemArray(levels) : Arrays.copyOf(update, levels);
+        rank = rank == null ? new int[levels] : Arrays.copyOf(rank, levels);
+
+        if (head.span != null){
+            head.span = Arrays.copyOf(head.span, levels);
+        }
+    }
+
+    /** AUX: Perform necessary re-links for inserting a tower after the given predecessors */
+    private void insertAfter(SkipListSetItem<T>[] predecessors, SkipListSetItem<T> newItem){
+        modCount++;
+
+        // Horizontal links on every level the new tower reaches
+        for (int level = 0; level < newItem.levels(); level++){
+            newItem.next[level] = predecessors[level].next[level];
+            predecessors[level].next[level] = newItem;
+        }
+
+        if (indexable){
+            updateSpansForInsert(newItem);
+        }
+
+        // Back pointer only exists on the bottom level
+        newItem.prev = predecessors[0];
+
+        if (newItem.next[0] != null){
+            newItem.next[0].prev = newItem;
+        } else {
+            tail = newItem;
+        }
+    }
+
+    /** Remove from skip list */
+    @Override
+    public boolean remove(Object o){
+        // Passed in nothing
+        if (o == null){
+            return false;
+        }
+
+        // Cast should be OK
+        @SuppressWarnings("unchecked")
+        T key = (T)o;
+
+        if (counters != null){
+            counters.removes++;
+        }
+
+        findPredecessors(key);
+
+        SkipListSetItem<T> itemToBeRemoved = update[0].next[0];
+
+        // Can't remove key that doesn't exist!
+        if (compare(itemToBeRemoved, key) != 0){
+            return false;
+        }
+
+        removeReferencesToItem(update, itemToBeRemoved);
+        recycle(itemToBeRemoved);
+
+        // update[] are still the key's predecessors, so they're still a valid finger
+        fingerModCount = modCount;
+
+        // Set was modified at this point
+        size--;
+        return true;
+    }
+
+    /** AUX: Remove links to a target removal item from the skip list, given its predecessors */
+    private void removeReferencesToItem(SkipListSetItem<T>[] predecessors, SkipListSetItem<T> itemToBeRemoved){
+        modCount++;
+
+        for (int level = 0; level < itemToBeRemoved.levels(); level++){
+            predecessors[level].next[level] = itemToBeRemoved.next[level];
+
+            // Predecessor now also skips whatever the removed tower skipped
+            if (indexable){
+                predecessors[level].span[level] += itemToBeRemoved.span[level] - 1;
+            }
+        }
+
+        // Pointers passing over the removed tower skip one item less
+        if (indexable){
+            for (int level = itemToBeRemoved.levels(); level < height; level++){
+                predecessors[level].span[level]--;
+            }
+        }
+
+        SkipListSetItem<T> afterItemToBeRemoved = itemToBeRemoved.next[0];
+
+        if (afterItemToBeRemoved != null){
+            afterItemToBeRemoved.prev = itemToBeRemoved.prev;
+        } else {
+            tail = itemToBeRemoved.prev;
+        }
+    }
+
+    /** Return live view of skip list, including start and excluding end */
+    @Override
+    public NavigableSet<T> subSet(T fromElement, T toElement){
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    /** Return live view of skip list between two elements, each end included or not */
+    @Override
+    public NavigableSet<T> subSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive){
+        if (fromElement == null || toElement == null){
+            throw new NullPointerException();
+        }
+
+        // Destination element is smaller than starting element, which is impossible in sorted set
+        if (compare(fromElement, toElement) > 0){
+            throw new IllegalArgumentException("fromElement is greater than toElement");
+        }
+
+        return new SubSet(fromElement, fromInclusive, toElement, toInclusive, false);
+    }
+
+    /** Return live view of every element before toElement */
+    @Override
+    public NavigableSet<T> headSet(T toElement){
+        return headSet(toElement, false);
+    }
+
+    /** Return live view of every element before toElement, or up to it if inclusive */
+    @Override
+    public NavigableSet<T> headSet(T toElement, boolean inclusive){
+        if (toElement == null){
+            throw new NullPointerException();
+        }
+
+        return new SubSet(null, false, toElement, inclusive, false);
+    }
+
+    /** Return live view of every element from fromElement onwards */
+    @Override
+    public NavigableSet<T> tailSet(T fromElement){
+        return tailSet(fromElement, true);
+    }
+
+    /** Return live view of every element after fromElement, or from it onwards if inclusive */
+    @Override
+    public NavigableSet<T> tailSet(T fromElement, boolean inclusive){
+        if (fromElement == null){
+            throw new NullPointerException();
+        }
+
+        return new SubSet(fromElement, inclusive, null, false, false);
+    }
+
+    /** Return live view of the skip list in reverse order; nothing is copied, it walks the prev pointers */
+    @Override
+    public NavigableSet<T> descendingSet(){
+        return new SubSet(null, false, null, false, true);
+    }
+
+    /** Return iterator that walks from the last element back to the first */
+    @Override
+    public Iterator<T> descendingIterator(){
+        return new DescendingSkipListSetIterator(tail, null);
+    }
+
+    /**
+     * Live view over a key range of this skip list, possibly in descending order. Nothing is copied: the start is
+     * found with one search, iteration walks the bottom level lazily, and writes go straight through to the skip list.
+     * Bounds are always kept in ascending terms; a null bound means that side is unbounded.
+     */
+    private class SubSet extends AbstractSet<T> implements NavigableSet<T> {
+        private final T fromElement;
+        private final boolean fromInclusive;
+        private final T toElement;
+        private final boolean toInclusive;
+
+        private final boolean descending;
+
+        SubSet(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive, boolean descending){
+            this.fromElement = fromElement;
+            this.fromInclusive = fromInclusive;
+            this.toElement = toElement;
+            this.toInclusive = toInclusive;
+            this.descending = descending;
+        }
+
+        /** AUX: Whether a key falls before the lower bound */
+        private boolean tooLow(T key){
+            if (fromElement == null){
+                return false;
+            }
+
+            int comparison = compare(key, fromElement);
+            return comparison < 0 || (comparison == 0 && !fromInclusive);
+        }
+
+        /** AUX: Whether a key falls after the upper bound */
+        private boolean tooHigh(T key){
+            if (toElement == null){
+                return false;
+            }
+
+            int comparison = compare(key, toElement);
+            return comparison > 0 || (comparison == 0 && !toInclusive);
+        }
+
+        /** AUX: Whether a key falls within the view's bounds */
+        private boolean inRange(T key){
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        /** AUX: Whether a key can be used as a bound of a narrower view; an excluded bound can only stay excluded */
+        private boolean inRange(T key, boolean inclusive){
+            if (inclusive){
+                return inRange(key);
+            }
+
+            return (fromElement == null || compare(key, fromElement) >= 0) && (toElement == null || compare(key, toElement) <= 0);
+        }
+
+        /** AUX: Compare two keys in the view's own order */
+        private int compareInOrder(T e1, T e2){
+            return descending ? compare(e2, e1) : compare(e1, e2);
+        }
+
+        /** AUX: Lowest bottom level item of the view, or null if there is none */
+        private SkipListSetItem<T> lowestItem(){
+            SkipListSetItem<T> item = fromElement == null ? head.next[0] : search(fromElement, !fromInclusive).next[0];
+
+            return item != null && !tooHigh(item.key) ? item : null;
+        }
+
+        /** AUX: Highest bottom level item of the view, or null if there is none */
+        private SkipListSetItem<T> highestItem(){
+            SkipListSetItem<T> item = toElement == null ? tail : search(toElement, toInclusive);
+
+            return item != head && !tooLow(item.key) ? item : null;
+        }
+
+        /** AUX: Greatest item with key < key (or <= key if inclusive) inside the view, or null */
+        private SkipListSetItem<T> itemBelow(T key, boolean inclusive){
+            if (tooHigh(key)){
+                return highestItem();
+            }
+
+            SkipListSetItem<T> item = search(key, inclusive);
+
+            return item == head || tooLow(item.key) ? null : item;
+        }
+
+        /** AUX: Least item with key > key (or >= key if inclusive) inside the view, or null */
+        private SkipListSetItem<T> itemAbove(T key, boolean inclusive){
+            if (tooLow(key)){
+                return lowestItem();
+            }
+
+            SkipListSetItem<T> item = search(key, !inclusive).next[0];
+
+            return item == null || tooHigh(item.key) ? null : item;
+        }
+
+        /** AUX: Key of an item, or null for no item */
+        private T keyOf(SkipListSetItem<T> item){
+            return item == null ? null : item.key;
+        }
+
+        @Override
+        public Comparator<? super T> comparator(){
+            return descending ? Collections.reverseOrder(comparator) : comparator;
+        }
+
+        @Override
+        public Iterator<T> iterator(){
+            return descending ? new DescendingSkipListSetIterator(highestItem(), this) : new SkipListSetIterator(lowestItem(), this);
+        }
+
+        @Override
+        public Iterator<T> descendingIterator(){
+            return descending ? new SkipListSetIterator(lowestItem(), this) : new DescendingSkipListSetIterator(highestItem(), this);
+        }
+
+        /** Remove everything in the view by splicing the list across it, see removeRange() */
+        @Override
+        public void clear(){
+            removeRange(fromElement, fromInclusive, toElement, toInclusive);
+        }
+
+        @Override
+        public int size(){
+            int count = 0;
+
+            for (SkipListSetItem<T> curr = lowestItem(); curr != null && !tooHigh(curr.key); curr = curr.next[0]){
+                count++;
+            }
+
+            return count;
+        }
+
+        @Override
+        public boolean isEmpty(){
+            return lowestItem() == null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o){
+            return o != null && inRange((T)o) && SkipListSet.this.contains(o);
+        }
+
+        @Override
+        public boolean add(T key){
+            if (key != null && !inRange(key)){
+                throw new IllegalArgumentException("Key out of range");
+            }
+
+            return SkipListSet.this.add(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o){
+            return o != null && inRange((T)o) && SkipListSet.this.remove(o);
+        }
+
+        @Override
+        public T first(){
+            SkipListSetItem<T> item = descending ? highestItem() : lowestItem();
+
+            if (item == null){
+                throw new NoSuchElementException();
+            }
+
+            return item.key;
+        }
+
+        @Override
+        public T last(){
+            SkipListSetItem<T> item = descending ? lowestItem() : highestItem();
+
+            if (item == null){
+                throw new NoSuchElementException();
+            }
+
+            return item.key;
+        }
+
+        @Override
+        public T lower(T key){
+            return keyOf(descending ? itemAbove(key, false) : itemBelow(key, false));
+        }
+
+        @Override
+        public T floor(T key){
+            return keyOf(descending ? itemAbove(key, true) : itemBelow(key, true));
+        }
+
+        @Override
+        public T ceiling(T key){
+            return keyOf(descending ? itemBelow(key, true) : itemAbove(key, true));
+        }
+
+        @Override
+        public T higher(T key){
+            return keyOf(descending ? itemBelow(key, false) : itemAbove(key, false));
+        }
+
+        @Override
+        public T pollFirst(){
+            SkipListSetItem<T> item = descending ? highestItem() : lowestItem();
+
+            if (item == null){
+                return null;
+            }
+
+            // remove() may recycle the tower, which clears its key
+            T key = item.key;
+
+            SkipListSet.this.remove(key);
+            return key;
+        }
+
+        @Override
+        public T pollLast(){
+            SkipListSetItem<T> item = descending ? lowestItem() : highestItem();
+
+            if (item == null){
+                return null;
+            }
+
+            // remove() may recycle the tower, which clears its key
+            T key = item.key;
+
+            SkipListSet.this.remove(key);
+            return key;
+        }
+
+        @Override
+        public NavigableSet<T> descendingSet(){
+            return new SubSet(fromElement, fromInclusive, toElement, toInclusive, !descending);
+        }
+
+        @Override
+        public NavigableSet<T> subSet(T from, boolean fromIncl, T to, boolean toIncl){
+            if (!inRange(from, fromIncl) || !inRange(to, toIncl)){
+                throw new IllegalArgumentException("Bounds out of range");
+            }
+
+            if (compareInOrder(from, to) > 0){
+                throw new IllegalArgumentException("fromElement is greater than toElement");
+            }
+
+            // Bounds are kept in ascending terms, so a descending view's from is the upper bound
+            return descending ? new SubSet(to, toIncl, from, fromIncl, true) : new SubSet(from, fromIncl, to, toIncl, false);
+        }
+
+        @Override
+        public NavigableSet<T> headSet(T to, boolean inclusive){
+            if (!inRange(to, inclusive)){
+                throw new IllegalArgumentException("Bound out of range");
+            }
+
+            return descending ? new SubSet(to, inclusive, toElement, toInclusive, true) : new SubSet(fromElement, fromInclusive, to, inclusive, false);
+        }
+
+        @Override
+        public NavigableSet<T> tailSet(T from, boolean inclusive){
+            if (!inRange(from, inclusive)){
+                throw new IllegalArgumentException("Bound out of range");
+            }
+
+            return descending ? new SubSet(fromElement, fromInclusive, from, inclusive, true) : new SubSet(from, inclusive, toElement, toInclusive, false);
+        }
+
+        @Override
+        public SortedSet<T> subSet(T from, T to){
+            return subSet(from, true, to, false);
+        }
+
+        @Override
+        public SortedSet<T> headSet(T to){
+            return headSet(to, false);
+        }
+
+        @Override
+        public SortedSet<T> tailSet(T from){
+            return tailSet(from, true);
+        }
+    }
+
+    /** Return greatest element strictly less than key, or null */
+    @Override
+    public T lower(T key){
+        SkipListSetItem<T> item = search(key, false);
+
+        return item == head ? null : item.key;
+    }
+
+    /** Return greatest element less than or equal to key, or null */
+    @Override
+    public T floor(T key){
+        SkipListSetItem<T> item = search(key, true);
+
+        return item == head ? null : item.key;
+    }
+
+    /** Return least element greater than or equal to key, or null */
+    @Override
+    public T ceiling(T key){
+        SkipListSetItem<T> item = search(key, false).next[0];
+
+        return item == null ? null : item.key;
+    }
+
+    /** Return least element strictly greater than key, or null */
+    @Override
+    public T higher(T key){
+        SkipListSetItem<T> item = search(key, true).next[0];
+
+        return item == null ? null : item.key;
+    }
+
+    /** Remove and return first element, or null if empty; its predecessor on every level is head, so no search is needed */
+    @Override
+    public T pollFirst(){
+        SkipListSetItem<T> first = head.next[0];
+
+        if (first == null){
+            return null;
+        }
+
+        Arrays.fill(update, 0, height, head);
+        removeReferencesToItem(update, first);
+
+        T key = first.key;
+        recycle(first);
+
+        size--;
+        return key;
+    }
+
+    /** Remove and return last element, or null if empty; predecessors come from walking the right edge, no comparisons */
+    @Override
+    public T pollLast(){
+        if (tail == head){
+            return null;
+        }
+
+        SkipListSetItem<T> last = tail;
+        SkipListSetItem<T> curr = head;
+
+        for (int level = height - 1; level >= 0; level--){
+            while (curr.next[level] != null && curr.next[level] != last){
+                curr = curr.next[level];
+            }
+
+            update[level] = curr;
+        }
+
+        removeReferencesToItem(update, last);
+
+        T key = last.key;
+        recycle(last);
+
+        size--;
+        return key;
+    }
+
+    /** Return first element in skip list; throws NoSuchElementException if it's empty */
     @Override
     public T first(){
-        return lowHead.next.key;
+        SkipListSetItem<T> first = head.next[0];
+
+        if (first == null){
+            throw new NoSuchElementException();
+        }
+
+        return first.key;
+    }
+
+    /** Return last element in skip list; throws NoSuchElementException if it's empty */
+    @Override
+    public T last(){
+        if (tail == head){
+            throw new NoSuchElementException();
+        }
+
+        return tail.key;
+    }
+
+    /** Return skip list size */
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /** Return whether skip list is empty */
+    @Override
+    public boolean isEmpty(){
+        if (size == 0){
+            return true;
+        }
+
+        return false;
+    }
+
+    /** Return whether o exists in the skip list */
+    @Override
+    public boolean contains(Object o){
+        T key = (T)o;
+
+        if (counters != null){
+            counters.contains++;
+        }
+
+        // Finger search keeps its predecessors around for the next call
+        if (fingerSearch && !indexable){
+            findPredecessors(key);
+
+            return compare(update[0].next[0], key) == 0;
+        }
+
+        SkipListSetItem<T> searchResult = search(key);
+
+        if (compare(searchResult, key) == 0){
+            return true;
+        }
+
+        return false;
+    }
+
+    /** Convert skip list to array of objects */
+    @Override
+    public Object[] toArray(){
+        // Empty list
+        if (isEmpty()){
+            return new Object[0];
+        }
+
+        // Iterate over list, adding to array sequentially
+        Object[] array = new Object[size];
+
+        int i = 0;
+        for (T key : this){
+            array[i] = key;
+            i++;
+        }
+
+        return array;
+    }
+
+    /** Paste skip list elements to array of generic type */
+    @Override
+    public <T> T[] toArray(T[] a){
+
+
+        // Empty list
+        if (isEmpty()){
+            return (T[]) Array.newInstance(a.getClass().getComponentType(), 0);
+        }
+
+        /*
+
+        If a is too small, we need a new array of this list's size; return that
+        If a has just enough space, copy elements to it and return its reference
+        If a is larger, overwrite the values that we need and leave rest unchanged
+
+        */
+
+        T[] targetArray = a.length < size() ? (T[]) Array.newInstance(a.getClass().getComponentType(), size()) : a;
+
+        int i = 0;
+        for (Object key : this){
+            targetArray[i] = (T)key;
+            i++;
+        }
+
+        return targetArray;
+    }
+
+    /** Check if skip list contains range of values; a large enough collection in our order is checked in one merge walk */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsAll(Collection<?> c){
+        if (mergeBeatsSearching(c)){
+            SkipListSetItem<T> curr = head.next[0];
+
+            for (Object o : c){
+                if (o == null){
+                    return false;
+                }
+
+                T key = (T)o;
+
+                while (curr != null && compare(curr.key, key) < 0){
+                    curr = curr.next[0];
+                }
+
+                if (curr == null || compare(curr.key, key) != 0){
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        for (Object o : c){
+            if (!contains(o)){
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Add a set of elements to the skip list; runs of keys past the current last key are appended in O(1) each, and a
+     * collection in our order is merged in with one left-to-right walk
+     */
+    @Override
+    public boolean addAll(Collection<? extends T> c){
+        if (!isEmpty() && inSameOrder(c)){
+            return mergeIn(c.iterator());
+        }
+
+        return addAll(c.iterator());
+    }
+
+    /**
+     * AUX: Insert keys arriving in ascending order. Every level resumes from the predecessor it had for the previous
+     * key instead of from the head, so the predecessors only ever move right and the merge costs O(n + m) in total.
+     */
+    private boolean mergeIn(Iterator<? extends T> sortedKeys){
+        boolean modified = false;
+
+        Arrays.fill(update, 0, height, head);
+        Arrays.fill(rank, 0, height, 0);
+
+        while (sortedKeys.hasNext()){
+            T key = sortedKeys.next();
+
+            // Passed in nothing
+            if (key == null){
+                continue;
+            }
+
+            SkipListSetItem<T> curr = head;
+            int position = 0;
+
+            for (int level = height - 1; level >= 0; level--){
+                // Pick up where this level stopped last time, unless the level above already got further
+                SkipListSetItem<T> resume = update[level];
+
+                if (curr == head || (resume != head && compare(resume.key, curr.key) > 0)){
+                    curr = resume;
+                    position = rank[level];
+                }
+
+                SkipListSetItem<T> next = curr.next[level];
+
+                while (next != null && compare(next.key, key) < 0){
+                    if (indexable){
+                        position += curr.span[level];
+                    }
+
+                    curr = next;
+                    next = curr.next[level];
+                }
+
+                update[level] = curr;
+                rank[level] = position;
+            }
+
+            // Don't modify the set on a duplicate key
+            if (compare(update[0].next[0], key) == 0){
+                continue;
+            }
+
+            int heightOfNewKey = randomLevel();
+
+            increaseHeightIfTaller(heightOfNewKey);
+
+            // update[] stays valid for the next key: everything in it still lies before the new tower
+            insertAfter(update, newItem(key, heightOfNewKey));
+
+            size++;
+            modified = true;
+        }
+
+        return modified;
+    }
+
+    /** AUX: Whether c iterates in the same order as this set, so bulk operations can merge against it */
+    private boolean inSameOrder(Collection<?> c){
+        return c instanceof SortedSet && Objects.equals(((SortedSet<?>) c).comparator(), comparator);
+    }
+
+    /** AUX: Whether one merge walk over the whole list is cheaper than a search per element of c */
+    private boolean mergeBeatsSearching(Collection<?> c){
+        // A search costs about one comparison per level
+        return inSameOrder(c) && (long) c.size() * height >= size;
     }
 
-    /** Return last element in skip list */
-    @Override
-    public T last(){
-        return lowTail.prev.key;
+    /**
+     * AUX: Membership test against a collection in our order, for keys asked about in ascending order (as removeIf()
+     * does). Each call only moves forward through the collection, so a whole sweep costs O(n + m).
+     */
+    private class SortedMembership implements Predicate<T> {
+        private final Iterator<?> keys;
+        private T pending; // Smallest key of the collection not yet passed, or null once it's used up
+
+        SortedMembership(Collection<?> c){
+            this.keys = c.iterator();
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance(){
+            pending = null;
+
+            while (pending == null && keys.hasNext()){
+                pending = (T) keys.next();
+            }
+        }
+
+        @Override
+        public boolean test(T key){
+            while (pending != null && compare(pending, key) < 0){
+                advance();
+            }
+
+            return pending != null && compare(pending, key) == 0;
+        }
+    }
+
+    /** AUX: Add everything an iterator hands out, appending without searching while keys keep ascending past the tail */
+    private boolean addAll(Iterator<? extends T> keys){
+        boolean modified = false;
+
+        // Whether update[] currently holds the rightmost tower of every level
+        boolean appending = false;
+
+        while (keys.hasNext()){
+            T key = keys.next();
+
+            // Passed in nothing
+            if (key == null){
+                continue;
+            }
+
+            // Not past the end of the list; fall back to a regular insert, which reuses update[]
+            if (tail != head && compare(tail.key, key) >= 0){
+                appending = false;
+
+                if (add(key)){
+                    modified = true;
+                }
+
+                continue;
+            }
+
+            if (!appending){
+                findRightmost();
+                appending = true;
+            }
+
+            append(key);
+            modified = true;
+        }
+
+        return modified;
+    }
+
+    /** AUX: Fills update[] with the last tower on every level; no comparisons needed */
+    private void findRightmost(){
+        SkipListSetItem<T> curr = head;
+
+        for (int level = height - 1; level >= 0; level--){
+            while (curr.next[level] != null){
+                curr = curr.next[level];
+            }
+
+            update[level] = curr;
+        }
+    }
+
+    /** AUX: Link a key greater than everything in the list after the tail; update[] must hold the rightmost towers */
+    private void append(T key){
+        modCount++;
+
+        int heightOfNewKey = randomLevel();
+
+        increaseHeightIfTaller(heightOfNewKey);
+
+        SkipListSetItem<T> newItem = newItem(key, heightOfNewKey);
+
+        if (indexable){
+            // Every rightmost pointer runs to the end of the list, which just moved one further
+            for (int level = 0; level < height; level++){
+                update[level].span[level]++;
+            }
+
+            // The new tower's pointers all run to the end, skipping nothing
+            if (newItem.span == null || newItem.span.length != heightOfNewKey){
+                newItem.span = new int[heightOfNewKey];
+            } else {
+                Arrays.fill(newItem.span, 0);
+            }
+        }
+
+        // The new tower becomes the rightmost one on every level it reaches
+        for (int level = 0; level < heightOfNewKey; level++){
+            update[level].next[level] = newItem;
+            update[level] = newItem;
+        }
+
+        newItem.prev = tail;
+        tail = newItem;
+
+        size++;
     }
 
-    /** Return skip list size */
+    /** Remove every element matching filter in one sweep along the bottom level, unlinking towers as we go */
     @Override
-    public int size(){
-        return size;
+    public boolean removeIf(Predicate<? super T> filter){
+        Objects.requireNonNull(filter);
+
+        // update[] holds the last kept tower on every level
+        Arrays.fill(update, 0, height, head);
+
+        int removed = 0;
+
+        SkipListSetItem<T> next;
+        for (SkipListSetItem<T> curr = head.next[0]; curr != null; curr = next){
+            next = curr.next[0];
+
+            if (!filter.test(curr.key)){
+                for (int level = 0; level < curr.levels(); level++){
+                    update[level] = curr;
+                }
+
+                continue;
+            }
+
+            // Spans get recomputed in one go afterwards rather than fixed on every level per removal
+            for (int level = 0; level < curr.levels(); level++){
+                update[level].next[level] = curr.next[level];
+            }
+
+            if (next != null){
+                next.prev = update[0];
+            } else {
+                tail = update[0];
+            }
+
+            recycle(curr);
+            removed++;
+        }
+
+        if (removed == 0){
+            return false;
+        }
+
+        modCount++;
+        size -= removed;
+
+        if (indexable){
+            recomputeSpans();
+        }
+
+        return true;
     }
 
-    /** Return whether skip list is empty */
-    @Override
-    public boolean isEmpty(){
-        if (size == 0){
-            return true;
+    /**
+     * Remove every element in [fromElement, toElement) and return how many there were. Both ends are found with one
+     * descent each, after which every level is spliced across the gap with a single pointer write; only counting the
+     * removed elements walks them, and in indexable mode even that comes from the spans.
+     */
+    public int removeRange(T fromElement, T toElement){
+        if (fromElement == null || toElement == null){
+            throw new NullPointerException();
         }
 
-        return false;
+        return removeRange(fromElement, true, toElement, false);
     }
 
-    /** Return whether o exists in the skip list */
-    @Override
-    public boolean contains(Object o){
-        T key = (T)o;
-        
-        SkipListSetItem<T> searchResult = search(key);
+    /** AUX: Remove everything between two bounds (null for no bound) with one descent per bound and one splice per level */
+    private int removeRange(T fromElement, boolean fromInclusive, T toElement, boolean toInclusive){
+        if (fromElement != null && toElement != null){
+            int comparison = compare(fromElement, toElement);
 
-        if (compare(searchResult, key) == 0){
-            return true;
+            if (comparison > 0){
+                throw new IllegalArgumentException("fromElement is greater than toElement");
+            }
+
+            // A single key excluded on either side leaves nothing to remove
+            if (comparison == 0 && !(fromInclusive && toInclusive)){
+                return 0;
+            }
         }
 
-        return false;
-    }
+        // First item past the range on every level, and its position (a level's end counts as size)
+        SkipListSetItem<T>[] after = newItemArray(height);
+        int[] afterPosition = new int[height];
 
-    /** Convert skip list to array of objects */
-    @Override
-    public Object[] toArray(){
-        // Empty list
-        if (isEmpty()){
-            return new Object[0];
+        if (toElement == null){
+            Arrays.fill(afterPosition, size);
+        } else {
+            findPredecessors(toElement, toInclusive);
+
+            for (int level = 0; level < height; level++){
+                after[level] = update[level].next[level];
+
+                if (indexable){
+                    afterPosition[level] = rank[level] + update[level].span[level];
+                }
+            }
         }
 
-        // Iterate over list, adding to array sequentially
-        Object[] array = new Object[size];
+        // Last item before the range on every level
+        if (fromElement == null){
+            Arrays.fill(update, 0, height, head);
+            Arrays.fill(rank, 0, height, 0);
+        } else {
+            findPredecessors(fromElement, !fromInclusive);
+        }
 
-        int i = 0;
-        for (T key : this){
-            array[i] = key;
-            i++;
+        int removed = 0;
+
+        if (indexable){
+            removed = (after[0] == null ? size : afterPosition[0] - 1) - rank[0];
+        } else {
+            for (SkipListSetItem<T> curr = update[0].next[0]; curr != after[0]; curr = curr.next[0]){
+                removed++;
+            }
         }
 
-        return array;
+        if (removed == 0){
+            return 0;
+        }
+
+        modCount++;
+
+        // One splice per level; a pointer that already jumped the whole range just skips fewer items now
+        for (int level = 0; level < height; level++){
+            update[level].next[level] = after[level];
+
+            if (indexable){
+                update[level].span[level] = afterPosition[level] - rank[level] - removed;
+            }
+        }
+
+        if (after[0] != null){
+            after[0].prev = update[0];
+        } else {
+            tail = update[0];
+        }
+
+        size -= removed;
+        return removed;
     }
 
-    /** Paste skip list elements to array of generic type */
-    @Override
-    public <T> T[] toArray(T[] a){
+    /**
+     * Move every element >= key into a new set (same ordering, same kind of level generator) and return it. The list
+     * is cut by clearing one pointer per level and handing those towers to a new head, so nothing gets copied. In
+     * indexable mode the new sizes come from the spans and the whole split is O(log n); otherwise they are counted
+     * from both ends of the cut at once, which costs O(min(left, right)).
+     */
+    public SkipListSet<T> splitAt(T key){
+        if (key == null){
+            throw new NullPointerException();
+        }
 
+        SkipListSet<T> upper = new SkipListSet<>(comparator, levelGenerator.split());
+        upper.setIndexable(indexable);
 
-        // Empty list
-        if (isEmpty()){
-            return (T[]) Array.newInstance(a.getClass().getComponentType(), 0);
+        findPredecessors(key, update, false);
+
+        SkipListSetItem<T> first = update[0].next[0];
+
+        if (first == null){
+            return upper;
         }
 
-        /*
+        int upperSize = indexable ? size - rank[0] : countAfter(update[0]);
 
-        If a is too small, we need a new array of this list's size; return that
-        If a has just enough space, copy elements to it and return its reference
-        If a is larger, overwrite the values that we need and leave rest unchanged
+        upper.growHead(Math.max(head.levels(), INITIAL_LEVELS));
+        upper.height = height;
 
-        */
+        modCount++;
 
-        T[] targetArray = a.length < size() ? (T[]) Array.newInstance(a.getClass().getComponentType(), size()) : a;
+        // Everything after this level's predecessor now hangs off the new head instead
+        for (int level = 0; level < height; level++){
+            upper.head.next[level] = update[level].next[level];
+            update[level].next[level] = null;
 
-        int i = 0;
-        for (Object key : this){
-            targetArray[i] = (T)key;
-            i++;
+            if (indexable){
+                // Positions on the upper side shift down by the size of the lower side
+                upper.head.span[level] = rank[level] + update[level].span[level] - rank[0];
+                update[level].span[level] = size - upperSize - rank[level];
+            }
         }
 
-        return targetArray;
+        first.prev = upper.head;
+        upper.tail = tail;
+        upper.size = upperSize;
+
+        tail = update[0];
+        size -= upperSize;
+
+        return upper;
     }
 
-    /** Check if skip list contains range of values */
-    @Override
-    public boolean containsAll(Collection<?> c){
-        for (Object o : c){
-            if (!contains(o)){
-                return false;
-            }
+    /** AUX: Amount of items after the given one, walking outwards from it in both directions so the shorter side ends it */
+    private int countAfter(SkipListSetItem<T> item){
+        SkipListSetItem<T> forward = item.next[0];
+        SkipListSetItem<T> backward = item;
+
+        int steps = 0;
+
+        while (forward != null && backward != head){
+            forward = forward.next[0];
+            backward = backward.prev;
+            steps++;
         }
 
-        return true;
+        // Ran off the right end: steps is the count after; ran into head: steps is the count up to item
+        return forward == null ? steps : size - steps;
     }
 
-    /** Add a set of elements to the skip list */
-    @Override
-    public boolean addAll(Collection<? extends T> c){
-        boolean modified = false;
+    /**
+     * Move every element of other to the end of this set; all of them must be greater than everything in this one,
+     * and both sets need the same ordering. other's towers are linked after this set's rightmost ones with one pointer
+     * write per level, so nothing gets copied; other is left empty.
+     */
+    public void concat(SkipListSet<T> other){
+        if (other == this){
+            throw new IllegalArgumentException("Can't concatenate a set with itself");
+        }
 
-        for (T key : c){
-            if (add(key)){
-                modified = true;
+        if (!Objects.equals(comparator, other.comparator)){
+            throw new IllegalArgumentException("Sets are ordered differently");
+        }
+
+        if (other.isEmpty()){
+            return;
+        }
+
+        if (!isEmpty() && compare(tail.key, other.head.next[0].key) >= 0){
+            throw new IllegalArgumentException("Key ranges overlap");
+        }
+
+        // Spans on the other side are needed to patch ours, so make sure it has them
+        boolean otherIndexable = other.indexable;
+        if (indexable){
+            other.setIndexable(true);
+        }
+
+        findRightmost();
+        increaseHeightIfTaller(other.height);
+
+        modCount++;
+
+        for (int level = 0; level < height; level++){
+            if (level < other.height){
+                update[level].next[level] = other.head.next[level];
+            }
+
+            // Rightmost pointers used to run to our end; now they also cross other up to its first tower on this level
+            if (indexable){
+                update[level].span[level] += level < other.height ? other.head.span[level] : other.size;
             }
         }
 
-        return modified;
+        other.head.next[0].prev = update[0];
+        tail = other.tail;
+        size += other.size;
+
+        // The towers belong to this set now
+        other.clear();
+        other.setIndexable(otherIndexable);
     }
 
-    /** Remove all elements from the skip list except those in c */
+    /** Remove all elements from the skip list except those in c; a collection in our order is merged against in one sweep */
     @Override
     public boolean retainAll(Collection<?> c){
+        if (inSameOrder(c)){
+            return removeIf(new SortedMembership(c).negate());
+        }
+
         // Iterate over entire list; remove element if not contained in c
         boolean modified = false;
 
@@ -687,9 +2114,13 @@ public class SkipListSet<T> implements SortedSet<T> {
         return modified;
     }
 
-    /** Remove a set of elements from skip list */
+    /** Remove a set of elements from skip list; a large enough collection in our order is merged against in one sweep */
     @Override
     public boolean removeAll(Collection<?> c){
+        if (mergeBeatsSearching(c)){
+            return removeIf(new SortedMembership(c));
+        }
+
         boolean modified = false;
 
         for (Object o : c){
@@ -705,20 +2136,20 @@ public class SkipListSet<T> implements SortedSet<T> {
     @Override
     public void clear(){
         // Reset everything; overwritten stuff will be garbage collected
+        modCount++;
         size = 0;
-        height = 0;
+        height = 1; // The bottom level always exists, even when empty
 
-        topHead = new SkipListSetItem<>();
-        topTail = new SkipListSetItem<>();
+        head = new SkipListSetItem<>(INITIAL_LEVELS);
+        tail = head;
 
-        topHead.isHead = true;
-        topTail.isTail = true;
-
-        topHead.next = topTail;
-        topTail.prev = topHead;
+        if (indexable){
+            head.span = new int[INITIAL_LEVELS];
+        }
 
-        lowHead = topHead;
-        lowTail = topTail;
+        update = null;
+        rank = null;
+        growHead(INITIAL_LEVELS);
     }
 
     /** Check if skip list contains same unique entries */
@@ -776,19 +2207,261 @@ public class SkipListSet<T> implements SortedSet<T> {
         return hash;
     }
 
-    /** Re-balances the skip list, randomizing all probabilities again by re-adding... */
+    /** AUX: Split the spans of the predecessors in update[] around a tower that was just linked after them */
+    private void updateSpansForInsert(SkipListSetItem<T> newItem){
+        // A recycled tower already has a span array of the right size
+        if (newItem.span == null || newItem.span.length != newItem.levels()){
+            newItem.span = new int[newItem.levels()];
+        }
+
+        for (int level = 0; level < newItem.levels(); level++){
+            // rank[0] - rank[level] items lie between this level's predecessor and the bottom one
+            int before = rank[0] - rank[level];
+
+            newItem.span[level] = update[level].span[level] - before;
+            update[level].span[level] = before + 1;
+        }
+
+        // Pointers passing over the new tower skip one item more
+        for (int level = newItem.levels(); level < height; level++){
+            update[level].span[level]++;
+        }
+    }
+
+    /**
+     * Turn indexable mode on or off. While on, every forward pointer remembers how many items it skips, which makes
+     * get(), indexOf(), rank(), countInRange() and percentile() O(log n) at the cost of an int per pointer.
+     * Turning it on takes one pass over the list.
+     */
+    public void setIndexable(boolean indexable){
+        if (indexable == this.indexable){
+            return;
+        }
+
+        this.indexable = indexable;
+
+        // recomputeSpans() reuses update[], so don't trust it as a finger anymore
+        fingerModCount = -1;
+
+        if (indexable){
+            recomputeSpans();
+        } else {
+            head.span = null;
+
+            for (SkipListSetItem<T> curr = head.next[0]; curr != null; curr = curr.next[0]){
+                curr.span = null;
+            }
+        }
+    }
+
+    /** Whether forward pointers keep their spans, see setIndexable() */
+    public boolean isIndexable(){
+        return indexable;
+    }
+
+    /** AUX: Recompute every span in one pass over the bottom level */
+    private void recomputeSpans(){
+        head.span = new int[head.levels()];
+
+        // update[] holds the rightmost tower seen so far on each level, rank[] its position
+        Arrays.fill(update, head);
+        Arrays.fill(rank, 0);
+
+        int position = 1;
+        for (SkipListSetItem<T> curr = head.next[0]; curr != null; curr = curr.next[0]){
+            if (curr.span == null || curr.span.length != curr.levels()){
+                curr.span = new int[curr.levels()];
+            }
+
+            for (int level = 0; level < curr.levels(); level++){
+                update[level].span[level] = position - rank[level];
+                update[level] = curr;
+                rank[level] = position;
+            }
+
+            position++;
+        }
+
+        // Rightmost pointers run to the end of the list
+        for (int level = 0; level < head.levels(); level++){
+            update[level].span[level] = size - rank[level];
+        }
+    }
+
+    /** AUX: Item at 1-based position in the bottom level (head is 0), found through the spans */
+    private SkipListSetItem<T> itemAt(int position){
+        SkipListSetItem<T> curr = head;
+        int traversed = 0;
+
+        for (int level = height - 1; level >= 0; level--){
+            while (curr.next[level] != null && traversed + curr.span[level] <= position){
+                traversed += curr.span[level];
+                curr = curr.next[level];
+            }
+
+            if (traversed == position){
+                return curr;
+            }
+        }
+
+        return curr;
+    }
+
+    /** AUX: Amount of items with key < key (or <= key if inclusive) */
+    private int countBelow(T key, boolean inclusive){
+        if (!indexable){
+            // Fall back to a walk along the bottom level
+            int count = 0;
+            for (SkipListSetItem<T> curr = head.next[0]; curr != null && compare(curr, key) < (inclusive ? 1 : 0); curr = curr.next[0]){
+                count++;
+            }
+
+            return count;
+        }
+
+        SkipListSetItem<T> curr = head;
+        int traversed = 0;
+
+        int stopAt = inclusive ? -1 : 0;
+
+        for (int level = height - 1; level >= 0; level--){
+            SkipListSetItem<T> next = curr.next[level];
+
+            while (next != null && compare(key, next.key) > stopAt){
+                traversed += curr.span[level];
+                curr = next;
+                next = curr.next[level];
+            }
+        }
+
+        return traversed;
+    }
+
+    /** Return the element at a 0-based position in sorted order; O(log n) in indexable mode */
+    public T get(int index){
+        if (index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        if (!indexable){
+            SkipListSetItem<T> curr = head.next[0];
+            for (int i = 0; i < index; i++){
+                curr = curr.next[0];
+            }
+
+            return curr.key;
+        }
+
+        return itemAt(index + 1).key;
+    }
+
+    /** Return the 0-based position of o in sorted order, or -1 if it isn't in the skip list */
+    @SuppressWarnings("unchecked")
+    public int indexOf(Object o){
+        if (o == null || !contains(o)){
+            return -1;
+        }
+
+        return countBelow((T)o, false);
+    }
+
+    /** Return how many elements are strictly less than key; key doesn't need to be in the skip list */
+    public int rank(T key){
+        return countBelow(key, false);
+    }
+
+    /** Return how many elements fall in [fromElement, toElement) */
+    public int countInRange(T fromElement, T toElement){
+        if (compare(fromElement, toElement) > 0){
+            throw new IllegalArgumentException("fromElement is greater than toElement");
+        }
+
+        return countBelow(toElement, false) - countBelow(fromElement, false);
+    }
+
+    /** Return the element at quantile q (0 to 1) by nearest rank, e.g. percentile(0.99) for P99 */
+    public T percentile(double q){
+        if (!(q >= 0 && q <= 1)){
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+
+        if (isEmpty()){
+            throw new NoSuchElementException();
+        }
+
+        int index = Math.max((int) Math.ceil(q * size) - 1, 0);
+
+        return get(index);
+    }
+
+    /** Re-balances the skip list, randomizing all probabilities again; towers are re-leveled in place in one pass */
     public void reBalance(){
-        // Iterate over the list, removing and re-adding as we go
-        Iterator<T> iterator = this.iterator();
-        while (iterator.hasNext()){
-            // Cache current key
-            T currentKey = iterator.next();
+        rebuildLevels(false);
+    }
+
+    /**
+     * Re-balances the skip list into its ideal shape in one pass: every 2nd item reaches level 1, every 4th level 2
+     * and so on, so searches take exactly log2(n) drops. Bottom level items are reused as they are.
+     */
+    public void reBalanceLogarithmic(){
+        rebuildLevels(true);
+    }
+
+    /** AUX: Walk the bottom level once, giving every tower a new height and relinking all levels above the bottom */
+    private void rebuildLevels(boolean logarithmic){
+        modCount++;
+
+        // Ideal list needs floor(log2(n)) + 1 levels, as long as the generator's cap allows it
+        int idealHeight = Math.min(32 - Integer.numberOfLeadingZeros(Math.max(size, 1)), levelGenerator.maxLevel());
+
+        if (logarithmic && idealHeight > head.levels()){
+            growHead(idealHeight);
+        }
+
+        // Every upper level starts out empty, with head as its rightmost tower
+        for (int level = 1; level < head.levels(); level++){
+            head.next[level] = null;
+        }
+
+        Arrays.fill(update, head);
+
+        int newHeight = 1;
+        int position = 1;
+
+        for (SkipListSetItem<T> curr = head.next[0]; curr != null; curr = curr.next[0]){
+            int levels = logarithmic ? Math.min(Integer.numberOfTrailingZeros(position) + 1, levelGenerator.maxLevel()) : randomLevel();
+
+            if (levels > head.levels()){
+                growHead(Math.max(levels, head.levels() * 2));
+                Arrays.fill(update, newHeight, update.length, head);
+            }
+
+            // Keep the tower, only swap out its pointer array if its height changed
+            if (curr.levels() != levels){
+                SkipListSetItem<T> bottomNext = curr.next[0];
+
+                curr.next = Arrays.copyOf(curr.next, levels);
+                curr.next[0] = bottomNext;
+            }
+
+            for (int level = 1; level < levels; level++){
+                update[level].next[level] = curr;
+                update[level] = curr;
+            }
+
+            newHeight = Math.max(newHeight, levels);
+            position++;
+        }
+
+        // Terminate every level after its rightmost tower
+        for (int level = 1; level < newHeight; level++){
+            update[level].next[level] = null;
+        }
 
-            // Remove it
-            iterator.remove();
+        height = newHeight;
 
-            // Re-add it
-            this.add(currentKey);
+        if (indexable){
+            recomputeSpans();
         }
     }
 
@@ -796,29 +2469,21 @@ public class SkipListSet<T> implements SortedSet<T> {
        StringBuilder sb = new StringBuilder();
        sb.append("\nSkipList starting with top-left most item.\n");
 
-       SkipListSetItem<T> curr = topHead;
-       SkipListSetItem<T> highestLevel = curr;
-       
-       int level = height;
-
-       while (highestLevel != null){
+       for (int level = height - 1; level >= 0; level--){
           sb.append("\nLevel: ").append(level).append("\n");
 
-          while (curr!= null){
-             sb.append(curr.key);
+          // Head and the end of the level both print as null, same as the sentinels they replaced
+          SkipListSetItem<T> curr = head;
 
-             if (curr.next != null){
-                 sb.append(" : ");
-             }
+          while (curr != null){
+             sb.append(curr.key).append(" : ");
 
-             curr = curr.next;
+             curr = curr.next[level];
           }
 
-          highestLevel = highestLevel.below;
-          curr = highestLevel;
-          level--;
+          sb.append("null\n");
        }
 
        System.out.println(sb);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+/**
+ * Management interface of a SkipListSet, registered through SkipListSet.registerMBean(). Being an MXBean, the stats
+ * snapshot shows up in JMX consoles as plain composite data.
+ */
+public interface SkipListSetMXBean {
+    /** Counters, size and height of the set, see SkipListSet.stats(); cheap enough to poll */
+    SkipListSetStats getStats();
+
+    /** The same plus the level histogram and tower heights; an operation, as it walks the whole list */
+    SkipListSetStats statsWithShape();
+
+    boolean isStatsEnabled();
+
+    void setStatsEnabled(boolean enabled);
+
+    /** Start the counters over from 0 (if stats are on) */
+    void resetStats();
+}
@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshots of sorted sets, for restarting without rebuilding from upstream.
+ *
+ * Layout: magic, version, codec id (length-prefixed UTF-8), key count (8 bytes), the keys in set order as written
+ * by the codec, and a CRC32C of the key bytes. Saving streams the bottom level through one reused buffer; loading
+ * maps the file and feeds the decoded keys straight into SkipListSet.fromSorted(), so neither side holds a second
+ * copy of the set.
+ */
+public final class SkipListSetSnapshot {
+    private static final int MAGIC = 0x534B4C53; // "SKLS"
+    private static final byte VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 20; // Bytes handed to the channel per write
+    private static final long WINDOW_SIZE = 1L << 30; // Bytes mapped at a time on load; a MappedByteBuffer caps at 2 GB
+
+    private SkipListSetSnapshot(){
+    }
+
+    /** Write every key of the set to path, replacing the file only once the whole snapshot is on disk */
+    public static <T> void save(SortedSet<T> set, SkipListKeyCodec<T> codec, Path path) throws IOException {
+        save(set.iterator(), codec, path);
+    }
+
+    /** Write keys that come in set order to path, replacing the file only once the whole snapshot is on disk */
+    public static <T> void save(Iterator<? extends T> sortedKeys, SkipListKeyCodec<T> codec, Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer header = header(codec);
+            writeFully(channel, header);
+
+            // The count goes in last, so a set that changes size while we stream it still yields a valid file
+            long countPosition = header.limit() - Long.BYTES;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CRC32C checksum = new CRC32C();
+
+            long count = 0;
+            T previous = null;
+
+            while (sortedKeys.hasNext()){
+                T key = sortedKeys.next();
+
+                int needed = codec.maxEncodedSize(key);
+
+                if (buffer.remaining() < needed){
+                    flush(channel, buffer, checksum);
+
+                    // A key that doesn't fit in an empty buffer gets a buffer of its own size
+                    if (buffer.capacity() < needed){
+                        buffer = ByteBuffer.allocateDirect(needed);
+                    }
+                }
+
+                codec.encode(previous, key, buffer);
+
+                previous = key;
+                count++;
+            }
+
+            flush(channel, buffer, checksum);
+
+            buffer.putInt((int) checksum.getValue());
+            buffer.flip();
+            writeFully(channel, buffer);
+
+            ByteBuffer countBuffer = ByteBuffer.allocate(Long.BYTES).putLong(0, count);
+            while (countBuffer.hasRemaining()){
+                channel.write(countBuffer, countPosition + countBuffer.position());
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // The rename lives in the directory, not the file; until that is forced a power loss can undo it
+        forceDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /** AUX: Force a directory's entries (files created, renamed or deleted in it) to disk */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)){
+            channel.force(true);
+        }
+    }
+
+    /** Read a snapshot back into a skip list ordered by natural ordering */
+    public static <T> SkipListSet<T> load(Path path, SkipListKeyCodec<T> codec) throws IOException {
+        return load(path, codec, null);
+    }
+
+    /**
+     * Read a snapshot back into a skip list ordered by comparator. Keys saved from a set with the same ordering are
+     * linked in one left-to-right pass; any other ordering still works, at the cost of a regular insert per key.
+     */
+    public static <T> SkipListSet<T> load(Path path, SkipListKeyCodec<T> codec, Comparator<? super T> comparator)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            SnapshotReader<T> reader = new SnapshotReader<>(channel, codec);
+
+            try {
+                SkipListSet<T> set = SkipListSet.fromSorted(reader, comparator);
+                reader.verify();
+
+                return set;
+            } catch (UncheckedIOException e){
+                throw e.getCause();
+            }
+        }
+    }
+
+    /** AUX: Magic, version, codec id and a zero count to be filled in once the keys are written */
+    private static ByteBuffer header(SkipListKeyCodec<?> codec){
+        byte[] id = codec.id().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 1 + 10 + id.length + Long.BYTES);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        SkipListKeyCodec.writeVarLong(header, id.length);
+        header.put(id);
+        header.putLong(0);
+
+        header.flip();
+        return header;
+    }
+
+    /** AUX: Checksum and write out whatever the buffer holds, then empty it */
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32C checksum) throws IOException {
+        buffer.flip();
+
+        checksum.update(buffer.duplicate());
+        writeFully(channel, buffer);
+
+        buffer.clear();
+    }
+
+    /** AUX: FileChannel.write() may write less than asked */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+
+    /** Decodes keys off a mapped window of the file, remapping further along whenever the window runs out */
+    private static final class SnapshotReader<T> implements Iterator<T> {
+        private final FileChannel channel;
+        private final SkipListKeyCodec<T> codec;
+
+        private final long keysEnd; // File offset where the checksum starts
+        private final long count;
+
+        private MappedByteBuffer window;
+        private long windowStart; // File offset of the window's first byte
+        private int checksummed; // Window bytes already fed to the checksum
+
+        private final CRC32C checksum = new CRC32C();
+
+        private long read;
+        private T previous;
+
+        SnapshotReader(FileChannel channel, SkipListKeyCodec<T> codec) throws IOException {
+            this.channel = channel;
+            this.codec = codec;
+
+            long fileSize = channel.size();
+            map(0, fileSize);
+
+            try {
+                if (window.getInt() != MAGIC){
+                    throw new IOException("Not a skip list snapshot");
+                }
+
+                byte version = window.get();
+                if (version != VERSION){
+                    throw new IOException("Unsupported snapshot version " + version);
+                }
+
+                byte[] id = new byte[(int) SkipListKeyCodec.readVarLong(window)];
+                window.get(id);
+
+                String savedId = new String(id, StandardCharsets.UTF_8);
+                if (!savedId.equals(codec.id())){
+                    throw new IOException("Snapshot was written with codec " + savedId + ", not " + codec.id());
+                }
+
+                count = window.getLong();
+            } catch (BufferUnderflowException e){
+                throw new IOException("Snapshot truncated", e);
+            } catch (RuntimeException e){
+                throw new IOException("Snapshot corrupt", e);
+            }
+
+            keysEnd = fileSize - Integer.BYTES;
+
+            if (keysEnd < windowStart + window.position()){
+                throw new IOException("Snapshot truncated");
+            }
+
+            // From here on the window only ever covers key bytes
+            map(windowStart + window.position(), keysEnd);
+        }
+
+        /** AUX: Map up to WINDOW_SIZE bytes starting at the given offset, never past end */
+        private void map(long start, long end) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(end - start, WINDOW_SIZE));
+            checksummed = 0;
+        }
+
+        /** AUX: Feed the window bytes up to position into the checksum */
+        private void checksumUpTo(int position){
+            checksum.update(window.duplicate().position(checksummed).limit(position));
+            checksummed = position;
+        }
+
+        @Override
+        public boolean hasNext(){
+            return read < count;
+        }
+
+        @Override
+        public T next(){
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+
+            int start = window.position();
+
+            T key;
+            try {
+                key = codec.decode(previous, window);
+            } catch (BufferUnderflowException e){
+                // The key straddles the window's end; map a new window starting at it and try once more
+                try {
+                    checksumUpTo(start);
+
+                    // Already mapped up to the last key byte; remapping won't find the rest
+                    if (windowStart + window.limit() >= keysEnd){
+                        throw new IOException("Snapshot truncated", e);
+                    }
+
+                    map(windowStart + start, keysEnd);
+                    key = codec.decode(previous, window);
+                } catch (IOException | BufferUnderflowException f){
+                    throw new UncheckedIOException(f instanceof IOException ? (IOException) f
+                            : new IOException("Snapshot truncated", f));
+                } catch (RuntimeException f){
+                    throw corrupt(f);
+                }
+            } catch (RuntimeException e){
+                // The checksum only gets checked at the end, so garbled bytes reach the codec first
+                throw corrupt(e);
+            }
+
+            previous = key;
+            read++;
+
+            return key;
+        }
+
+        /** AUX: Report bytes the codec choked on as a corrupt snapshot */
+        private static UncheckedIOException corrupt(RuntimeException e){
+            return new UncheckedIOException(new IOException("Snapshot corrupt", e));
+        }
+
+        /** Check that every key was read and that the key bytes match the checksum at the end of the file */
+        void verify() throws IOException {
+            checksumUpTo(window.position());
+
+            if (windowStart + window.position() != keysEnd){
+                throw new IOException("Snapshot has trailing bytes after its last key");
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+            while (trailer.hasRemaining()){
+                if (channel.read(trailer, keysEnd + trailer.position()) < 0){
+                    throw new IOException("Snapshot truncated");
+                }
+            }
+
+            if (trailer.getInt(0) != (int) checksum.getValue()){
+                throw new IOException("Snapshot checksum mismatch");
+            }
+        }
+    }
+}
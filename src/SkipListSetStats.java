@@ -0,0 +1,125 @@
+import javax.management.openmbean.CompositeData;
+import java.util.Arrays;
+
+/**
+ * Point-in-time statistics of a SkipListSet, see SkipListSet.stats(). Counters are totals since stats were turned
+ * on (or last reset); the shape fields describe the list at the time of the snapshot, and are only filled in by
+ * SkipListSet.stats(true) (the histogram is empty otherwise).
+ */
+public final class SkipListSetStats {
+    private final int size;
+    private final int height;
+    private final long[] levelHistogram; // levelHistogram[l] = towers reaching level l (0 is the bottom level)
+    private final int maxTowerHeight;
+    private final double averageTowerHeight;
+
+    private final long adds;
+    private final long removes;
+    private final long contains;
+
+    private final long searches;
+    private final long comparisons;
+    private final long hops;
+
+    SkipListSetStats(int size, int height, long[] levelHistogram, int maxTowerHeight, double averageTowerHeight,
+                     long adds, long removes, long contains, long searches, long comparisons, long hops){
+        this.size = size;
+        this.height = height;
+        this.levelHistogram = levelHistogram;
+        this.maxTowerHeight = maxTowerHeight;
+        this.averageTowerHeight = averageTowerHeight;
+
+        this.adds = adds;
+        this.removes = removes;
+        this.contains = contains;
+
+        this.searches = searches;
+        this.comparisons = comparisons;
+        this.hops = hops;
+    }
+
+    /** Rebuild a snapshot from its JMX form, which is what lets JMX.newMXBeanProxy() hand out SkipListSetStats */
+    public static SkipListSetStats from(CompositeData data){
+        return new SkipListSetStats((Integer) data.get("size"), (Integer) data.get("height"), (long[]) data.get("levelHistogram"),
+                (Integer) data.get("maxTowerHeight"), (Double) data.get("averageTowerHeight"),
+                (Long) data.get("adds"), (Long) data.get("removes"), (Long) data.get("contains"),
+                (Long) data.get("searches"), (Long) data.get("comparisons"), (Long) data.get("hops"));
+    }
+
+    /** Amount of elements */
+    public int getSize(){
+        return size;
+    }
+
+    /** Levels the list currently uses */
+    public int getHeight(){
+        return height;
+    }
+
+    /**
+     * Towers reaching each level, bottom level first; halving from one level to the next means a healthy p = 1/2 list.
+     * Empty if the snapshot was taken without the shape
+     */
+    public long[] getLevelHistogram(){
+        return levelHistogram.clone();
+    }
+
+    /** Tallest tower in the list; 0 without the shape */
+    public int getMaxTowerHeight(){
+        return maxTowerHeight;
+    }
+
+    /** Average levels per tower, i.e. forward pointers per element; 0 without the shape */
+    public double getAverageTowerHeight(){
+        return averageTowerHeight;
+    }
+
+    /** add() calls */
+    public long getAdds(){
+        return adds;
+    }
+
+    /** remove() calls */
+    public long getRemoves(){
+        return removes;
+    }
+
+    /** contains() calls */
+    public long getContains(){
+        return contains;
+    }
+
+    /** Descents through the levels, for any operation */
+    public long getSearches(){
+        return searches;
+    }
+
+    /** Key comparisons made during descents */
+    public long getComparisons(){
+        return comparisons;
+    }
+
+    /** Forward pointers followed during descents */
+    public long getHops(){
+        return hops;
+    }
+
+    public double getAverageComparisonsPerSearch(){
+        return searches == 0 ? 0 : (double) comparisons / searches;
+    }
+
+    public double getAverageHopsPerSearch(){
+        return searches == 0 ? 0 : (double) hops / searches;
+    }
+
+    @Override
+    public String toString(){
+        String shape = levelHistogram.length == 0 ? "" : ", levels=" + Arrays.toString(levelHistogram) + ", maxTowerHeight="
+                + maxTowerHeight + ", averageTowerHeight=" + String.format("%.2f", averageTowerHeight);
+
+        return "SkipListSetStats{size=" + size + ", height=" + height + shape
+                + ", adds=" + adds + ", removes=" + removes + ", contains=" + contains + ", searches=" + searches
+                + ", comparisons/search=" + String.format("%.2f", getAverageComparisonsPerSearch())
+                + ", hops/search=" + String.format("%.2f", getAverageHopsPerSearch()) + "}";
+    }
+}
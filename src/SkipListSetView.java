@@ -0,0 +1,163 @@
+import java.util.*;
+
+/**
+ * Live view over [fromElement, toElement) of a sorted set; a null bound means unbounded. Shared by the sets that don't
+ * need a NavigableSet view of their own: each one supplies a Navigation for range scans and the last key of a range,
+ * and the view does the rest. As with TreeSet's views, keys and narrower bounds outside the range are rejected with an
+ * IllegalArgumentException. The view is exactly as consistent under concurrent writes as the set's iterators are.
+ */
+final class SkipListSetView<T> extends AbstractSet<T> implements SortedSet<T> {
+    /** What a view needs from the set behind it */
+    interface Navigation<T> {
+        /** Keys in [fromElement, toElement) in order; a null bound means unbounded */
+        Iterator<T> iterator(T fromElement, T toElement);
+
+        /** Greatest key in [fromElement, toElement), or null if there is none */
+        T highest(T fromElement, T toElement);
+    }
+
+    private final SortedSet<T> set;
+    private final Navigation<T> navigation;
+
+    private final T fromElement;
+    private final T toElement;
+
+    private SkipListSetView(SortedSet<T> set, Navigation<T> navigation, T fromElement, T toElement){
+        this.set = set;
+        this.navigation = navigation;
+        this.fromElement = fromElement;
+        this.toElement = toElement;
+    }
+
+    /** Unbounded view over the whole set, to carve subSet()/headSet()/tailSet() out of */
+    static <T> SkipListSetView<T> of(SortedSet<T> set, Navigation<T> navigation){
+        return new SkipListSetView<>(set, navigation, null, null);
+    }
+
+    private int compare(T e1, T e2){
+        return SkipListSet.compare(set.comparator(), e1, e2);
+    }
+
+    /** AUX: Whether a key falls within the view's bounds */
+    private boolean inRange(T key){
+        return (fromElement == null || compare(key, fromElement) >= 0) && (toElement == null || compare(key, toElement) < 0);
+    }
+
+    /** AUX: Whether a key may serve as a new upper bound, which can be the view's own (exclusive) upper bound */
+    private boolean inClosedRange(T key){
+        return (fromElement == null || compare(key, fromElement) >= 0) && (toElement == null || compare(key, toElement) <= 0);
+    }
+
+    @Override
+    public Comparator<? super T> comparator(){
+        return set.comparator();
+    }
+
+    @Override
+    public Iterator<T> iterator(){
+        return navigation.iterator(fromElement, toElement);
+    }
+
+    /** Counts the view's keys; Integer.MAX_VALUE if it holds more than that */
+    @Override
+    public int size(){
+        long count = 0;
+
+        for (Iterator<T> iterator = iterator(); iterator.hasNext(); iterator.next()){
+            count++;
+        }
+
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return !iterator().hasNext();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o){
+        return o != null && inRange((T)o) && set.contains(o);
+    }
+
+    @Override
+    public boolean add(T key){
+        if (key != null && !inRange(key)){
+            throw new IllegalArgumentException("Key out of range");
+        }
+
+        return set.add(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object o){
+        return o != null && inRange((T)o) && set.remove(o);
+    }
+
+    @Override
+    public T first(){
+        Iterator<T> iterator = iterator();
+
+        if (!iterator.hasNext()){
+            throw new NoSuchElementException();
+        }
+
+        return iterator.next();
+    }
+
+    @Override
+    public T last(){
+        T last = navigation.highest(fromElement, toElement);
+
+        if (last == null){
+            throw new NoSuchElementException();
+        }
+
+        return last;
+    }
+
+    @Override
+    public SortedSet<T> subSet(T from, T to){
+        if (from == null || to == null){
+            throw new NullPointerException();
+        }
+
+        if (compare(from, to) > 0){
+            throw new IllegalArgumentException("fromElement is greater than toElement");
+        }
+
+        if (!inRange(from) || !inClosedRange(to)){
+            throw new IllegalArgumentException("Bounds out of range");
+        }
+
+        return new SkipListSetView<>(set, navigation, from, to);
+    }
+
+    @Override
+    public SortedSet<T> headSet(T to){
+        if (to == null){
+            throw new NullPointerException();
+        }
+
+        if (!inClosedRange(to)){
+            throw new IllegalArgumentException("toElement out of range");
+        }
+
+        return new SkipListSetView<>(set, navigation, fromElement, to);
+    }
+
+    @Override
+    public SortedSet<T> tailSet(T from){
+        if (from == null){
+            throw new NullPointerException();
+        }
+
+        if (!inRange(from)){
+            throw new IllegalArgumentException("fromElement out of range");
+        }
+
+        return new SkipListSetView<>(set, navigation, from, toElement);
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of set mutations for DurableSkipListSet.
+ *
+ * Records (a type byte, then the key as the codec writes it relative to the previous logged key) pile up in memory and
+ * go out as frames: payload length, CRC32C of the payload, payload. Every commit hands its records to the OS before
+ * returning; whoever gets there first writes everything pending as one frame (and forces it, if the sync policy says
+ * so), while later callers wait for that write instead of doing their own, so concurrent writers share writes and
+ * fsyncs (group commit). A frame that was cut off by a crash fails its length or checksum
+ * check and is dropped on replay, together with everything after it.
+ */
+final class SkipListWriteAheadLog<T> implements Closeable {
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    static final byte CLEAR = 3;
+
+    private static final int FRAME_HEADER = Integer.BYTES * 2;
+
+    private final SkipListKeyCodec<T> codec;
+    private final long syncIntervalMillis; // 0 forces on every commit, < 0 never forces
+
+    private FileChannel channel;
+    private long bytes; // Length of the current log file
+
+    private ByteBuffer pending; // Records not yet handed to the OS, after room for the frame header
+    private ByteBuffer spare; // Swapped in while the previous pending buffer is being written
+    private T previous; // Last logged key, which the next one is encoded against
+
+    private long appended; // Sequence number of the last record appended
+    private long written; // ... of the last record handed to the OS
+    private long durable; // ... of the last record forced to disk
+
+    private boolean writing; // Whether some thread is writing a frame right now
+    private IOException failure; // First write error; the log refuses to go on after one
+
+    private final Thread syncer; // Forces the log every syncIntervalMillis, if that is > 0
+    private boolean closed;
+
+    SkipListWriteAheadLog(Path file, SkipListKeyCodec<T> codec, long syncIntervalMillis) throws IOException {
+        this.codec = codec;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        this.pending = newBuffer(1 << 16);
+        this.spare = newBuffer(1 << 16);
+
+        open(file);
+
+        if (syncIntervalMillis > 0){
+            syncer = new Thread(this::syncPeriodically, "skip-list-wal-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    /** AUX: Empty record buffer with the frame header already skipped */
+    private static ByteBuffer newBuffer(int capacity){
+        return ByteBuffer.allocate(capacity).position(FRAME_HEADER);
+    }
+
+    /** AUX: Start appending to the given file, which starts a new chain of key deltas */
+    private void open(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        bytes = channel.size();
+        channel.position(bytes);
+
+        // Forcing the file later doesn't force its directory entry; without this a power loss could drop the whole file
+        SkipListSetSnapshot.forceDirectory(file.toAbsolutePath().getParent());
+
+        previous = null;
+    }
+
+    /** Log a mutation; returns its sequence number, to be passed to commit(). Key is ignored for CLEAR */
+    synchronized long append(byte type, T key){
+        int needed = 1 + (type == CLEAR ? 0 : codec.maxEncodedSize(key));
+
+        if (pending.remaining() < needed){
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+
+        pending.put(type);
+
+        if (type != CLEAR){
+            codec.encode(previous, key, pending);
+            previous = key;
+        }
+
+        return ++appended;
+    }
+
+    /**
+     * Hand a record to the OS and, if the sync policy forces on every commit, to the disk; call without holding any
+     * lock the log's writers need
+     */
+    void commit(long sequence) throws IOException {
+        // Without a force the records still reach the OS before we return, so only an OS crash or power loss can
+        // lose them, not a crash of this process
+        sync(sequence, syncIntervalMillis == 0);
+    }
+
+    /** Sequence number of the last record appended */
+    synchronized long lastSequence(){
+        return appended;
+    }
+
+    /** Length of the current log file, not counting records still pending */
+    synchronized long size(){
+        return bytes;
+    }
+
+    /** Write every record up to sequence to the OS and, if force, to disk; joins an ongoing write if there is one */
+    void sync(long sequence, boolean force) throws IOException {
+        ByteBuffer batch;
+        long target;
+
+        synchronized (this){
+            while (true){
+                if (failure != null){
+                    throw new IOException("Write-ahead log failed earlier", failure);
+                }
+
+                if ((force ? durable : written) >= sequence){
+                    return;
+                }
+
+                if (!writing){
+                    break;
+                }
+
+                // Someone else is writing; their frame may well include our records
+                waitForWriter();
+            }
+
+            writing = true;
+
+            batch = pending;
+            target = appended;
+
+            pending = spare;
+            spare = null;
+        }
+
+        IOException error = null;
+        try {
+            writeFrame(batch);
+
+            if (force){
+                channel.force(false);
+            }
+        } catch (IOException e){
+            error = e;
+        }
+
+        synchronized (this){
+            writing = false;
+
+            batch.clear().position(FRAME_HEADER);
+            spare = batch;
+
+            if (error != null){
+                failure = error;
+            } else {
+                written = target;
+
+                if (force){
+                    durable = target;
+                }
+            }
+
+            notifyAll();
+        }
+
+        if (error != null){
+            throw error;
+        }
+    }
+
+    /** AUX: Frame up a buffer of records and write it at the end of the log; nothing happens if it's empty */
+    private void writeFrame(ByteBuffer batch) throws IOException {
+        int length = batch.position() - FRAME_HEADER;
+
+        if (length == 0){
+            return;
+        }
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(batch.array(), FRAME_HEADER, length);
+
+        batch.putInt(0, length);
+        batch.putInt(Integer.BYTES, (int) checksum.getValue());
+        batch.flip();
+
+        while (batch.hasRemaining()){
+            channel.write(batch);
+        }
+
+        synchronized (this){
+            bytes += FRAME_HEADER + length;
+        }
+    }
+
+    /** AUX: Wait for the current writer to finish */
+    private void waitForWriter() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the write-ahead log", e);
+        }
+    }
+
+    /** Force everything appended so far, then continue in a new file; callers must keep new appends out meanwhile */
+    void rotate(Path file) throws IOException {
+        sync(lastSequence(), true);
+
+        synchronized (this){
+            // The periodic syncer may have started an (empty) write since
+            while (writing){
+                waitForWriter();
+            }
+
+            channel.close();
+            open(file);
+        }
+    }
+
+    /** AUX: Body of the syncer thread */
+    private void syncPeriodically(){
+        while (true){
+            try {
+                Thread.sleep(syncIntervalMillis);
+            } catch (InterruptedException e){
+                return;
+            }
+
+            synchronized (this){
+                if (closed){
+                    return;
+                }
+            }
+
+            try {
+                sync(lastSequence(), true);
+            } catch (IOException e){
+                // Recorded in failure; the next caller of sync() gets to see it
+                return;
+            }
+        }
+    }
+
+    /** Force everything appended so far and close the file */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync(lastSequence(), true);
+        } finally {
+            synchronized (this){
+                closed = true;
+            }
+
+            if (syncer != null){
+                syncer.interrupt();
+            }
+
+            channel.close();
+        }
+    }
+
+    /**
+     * Apply a log file to a set, stopping at the first frame a crash cut off or garbled. That frame and anything after
+     * it get truncated away, so appending to the file later can't leave good frames behind a bad one.
+     */
+    static <T> void replay(Path file, SkipListKeyCodec<T> codec, SkipListSet<T> set) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            long size = channel.size();
+            long position = 0;
+
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+            ByteBuffer payload = ByteBuffer.allocate(0);
+            CRC32C checksum = new CRC32C();
+
+            T previous = null;
+
+            while (position + FRAME_HEADER <= size){
+                header.clear();
+                readFully(channel, header, position);
+
+                int length = header.getInt(0);
+                if (length <= 0 || length > size - position - FRAME_HEADER){
+                    break;
+                }
+
+                if (payload.capacity() < length){
+                    payload = ByteBuffer.allocate(length);
+                }
+
+                payload.clear().limit(length);
+                readFully(channel, payload, position + FRAME_HEADER);
+
+                checksum.reset();
+                checksum.update(payload.array(), 0, length);
+
+                if ((int) checksum.getValue() != header.getInt(Integer.BYTES)){
+                    break;
+                }
+
+                payload.flip();
+
+                while (payload.hasRemaining()){
+                    byte type = payload.get();
+
+                    if (type == CLEAR){
+                        set.clear();
+                        continue;
+                    }
+
+                    T key = codec.decode(previous, payload);
+                    previous = key;
+
+                    if (type == ADD){
+                        set.add(key);
+                    } else if (type == REMOVE){
+                        set.remove(key);
+                    } else {
+                        throw new IOException("Unknown record type " + type + " in " + file);
+                    }
+                }
+
+                position += FRAME_HEADER + length;
+            }
+
+            if (position < size){
+                channel.truncate(position);
+            }
+        }
+    }
+
+    /** AUX: FileChannel.read() may read less than asked */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer, position + buffer.position()) < 0){
+                throw new IOException("Unexpected end of log");
+            }
+        }
+    }
+}